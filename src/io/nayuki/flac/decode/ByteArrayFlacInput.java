@@ -28,12 +28,13 @@ import java.util.Objects;
 /**
  * A FLAC input stream based on a fixed byte array.
  */
-public final class ByteArrayFlacInput extends AbstractFlacLowLevelInput {
+public class ByteArrayFlacInput extends AbstractFlacLowLevelInput {
 	
 	/*---- Fields ----*/
 	
 	// The underlying byte array to read from.
 	private byte[] data;
+	private int length;
 	private int offset;
 	
 	
@@ -41,8 +42,17 @@ public final class ByteArrayFlacInput extends AbstractFlacLowLevelInput {
 	/*---- Constructors ----*/
 	
 	public ByteArrayFlacInput(byte[] b) {
+		this(b, b.length);
+	}
+	
+	
+	//sahlaysta custom constructor, the first len bytes of the array
+	public ByteArrayFlacInput(byte[] b, int len) {
 		super();
 		data = Objects.requireNonNull(b);
+		if (len < 0 || len > b.length)
+			throw new IndexOutOfBoundsException();
+		length = len;
 		offset = 0;
 	}
 	
@@ -51,7 +61,7 @@ public final class ByteArrayFlacInput extends AbstractFlacLowLevelInput {
 	/*---- Methods ----*/
 	
 	public long getLength() {
-		return data.length;
+		return length;
 	}
 	
 	
@@ -64,7 +74,7 @@ public final class ByteArrayFlacInput extends AbstractFlacLowLevelInput {
 	protected int readUnderlying(byte[] buf, int off, int len) {
 		if (off < 0 || off > buf.length || len < 0 || len > buf.length - off)
 			throw new ArrayIndexOutOfBoundsException();
-		int n = Math.min(data.length - offset, len);
+		int n = Math.min(length - offset, len);
 		if (n == 0)
 			return -1;
 		System.arraycopy(data, offset, buf, off, n);
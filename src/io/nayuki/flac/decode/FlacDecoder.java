@@ -93,6 +93,16 @@ public final class FlacDecoder implements AutoCloseable {
 		input = new SeekableFileFlacInput(sraf);
 	}
 	
+	//sahlaysta custom constructor
+	public FlacDecoder(FlacLowLevelInput input) throws IOException {
+		this.input = Objects.requireNonNull(input);
+		
+		// Read basic header
+		if (input.readUint(32) != 0x664C6143)  // Magic string "fLaC"
+			throw new DataFormatException("Invalid magic string");
+		metadataEndPos = -1;
+	}
+	
 	
 	
 	/*---- Methods ----*/
@@ -0,0 +1,118 @@
+package sahlaysta.shtooka;
+
+import java.util.Arrays;
+
+/* a bk-tree of strings by levenshtein distance (in chars),
+ * finds the strings within an edit distance of a string
+ * without comparing it to every string */
+final class BkTree {
+	
+	//nodes, node 0 is the root
+	private final String[] words;
+	private final int[] firstChild, nextSibling, distance;
+	private int size;
+	
+	BkTree(String[] words) {
+		this.words = new String[words.length];
+		firstChild = new int[words.length];
+		nextSibling = new int[words.length];
+		distance = new int[words.length];
+		Arrays.fill(firstChild, -1);
+		Arrays.fill(nextSibling, -1);
+		int[] row0 = new int[16], row1 = new int[16];
+		for (String word: words) {
+			if (size == 0) {
+				this.words[size++] = word;
+				continue;
+			}
+			if (row0.length <= word.length()) {
+				row0 = new int[word.length() + 1];
+				row1 = new int[word.length() + 1];
+			}
+			//go down the edges of the distances to the word
+			int node = 0;
+			while (true) {
+				int d = levenshtein(word, this.words[node], row0, row1);
+				if (d == 0)
+					break;//duplicate
+				int child = firstChild[node];
+				while (child != -1 && distance[child] != d)
+					child = nextSibling[child];
+				if (child == -1) {
+					//add the word as a child
+					this.words[size] = word;
+					distance[size] = d;
+					nextSibling[size] = firstChild[node];
+					firstChild[node] = size++;
+					break;
+				}
+				node = child;
+			}
+		}
+	}
+	
+	/* the words within the edit distance of the word,
+	 * ordered by distance and then by code point */
+	String[] search(String word, int maxDistance) {
+		if (size == 0)
+			return new String[0];
+		int[] row0 = new int[word.length() + 1], row1 = new int[word.length() + 1];
+		int[] stack = new int[16];
+		long[] found = new long[16];//distance, node
+		int stackLen = 0, foundLen = 0;
+		stack[stackLen++] = 0;
+		while (stackLen > 0) {
+			int node = stack[--stackLen];
+			int d = levenshtein(word, words[node], row0, row1);
+			if (d <= maxDistance) {
+				if (foundLen == found.length)
+					found = Arrays.copyOf(found, foundLen * 2);
+				found[foundLen++] = ((long)d << 32) | node;
+			}
+			//only the children within the distance can match
+			for (int child = firstChild[node]; child != -1; child = nextSibling[child]) {
+				if (Math.abs(distance[child] - d) <= maxDistance) {
+					if (stackLen == stack.length)
+						stack = Arrays.copyOf(stack, stackLen * 2);
+					stack[stackLen++] = child;
+				}
+			}
+		}
+		
+		//order the found words
+		Long[] sorted = new Long[foundLen];
+		for (int i = 0; i < foundLen; i++)
+			sorted[i] = found[i];
+		Arrays.sort(sorted, (l1, l2) -> {
+			int cmp = Long.compare(l1 >>> 32, l2 >>> 32);
+			return cmp != 0 ? cmp : Util.compareCodePoints(
+				words[(int)(long)l1], words[(int)(long)l2]);
+		});
+		String[] result = new String[foundLen];
+		for (int i = 0; i < foundLen; i++)
+			result[i] = words[(int)(long)sorted[i]];
+		return result;
+	}
+	
+	//edit distance, the rows are at least as long as s1 + 1
+	private static int levenshtein(String s1, String s2, int[] prev, int[] cur) {
+		int len1 = s1.length(), len2 = s2.length();
+		for (int i = 0; i <= len1; i++)
+			prev[i] = i;
+		for (int j = 1; j <= len2; j++) {
+			cur[0] = j;
+			char c2 = s2.charAt(j - 1);
+			for (int i = 1; i <= len1; i++) {
+				int cost = s1.charAt(i - 1) == c2 ? 0 : 1;
+				cur[i] = Math.min(
+					Math.min(cur[i - 1] + 1, prev[i] + 1),
+					prev[i - 1] + cost);
+			}
+			int[] swap = prev;
+			prev = cur;
+			cur = swap;
+		}
+		return prev[len1];
+	}
+	
+}
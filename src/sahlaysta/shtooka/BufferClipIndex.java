@@ -0,0 +1,420 @@
+package sahlaysta.shtooka;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/* a clip index read directly from a byte buffer, such
+ * as a memory-mapped index file or a direct buffer built
+ * by a scan, without creating objects for its contents.
+ * all strings are kept once as UTF-8 bytes in a pool.
+ * 
+ * layout (big endian):
+ *   int clip count, int name count, int pool size,
+ *   int filename prefix ref, int hash bucket bits,
+ *   int filename hash bucket bits,
+ *   long index.xml offset, long index.xml size
+ *   clips: per voice clip in .tar order:
+ *     long offset, long size, int filename ref, int first name
+ *   names: per voice clip name, ordered by voice clip:
+ *     int name ref, int voice clip
+ *   hashes: per voice clip name, ordered by mixed hash (unsigned)
+ *     and then name: int mixed hash, int name
+ *   buckets: per hash bucket, and one more: int first hash
+ *     entry whose top mixed hash bits are at least the bucket
+ *   sorted: per voice clip name, ordered by the UTF-8 bytes of
+ *     the name and then name: int name
+ *   filename hashes: per voice clip, ordered by the mixed hash
+ *     (unsigned) of the filename without the prefix and then
+ *     voice clip: int mixed hash, int voice clip
+ *   filename buckets: as the buckets, of the filename hashes
+ *   pool: strings (ref), each is an unsigned short
+ *     UTF-8 byte length followed by the UTF-8 bytes
+ * 
+ * the filenames are stored without the prefix common
+ * to all of them (e.g. "flac/"), and each name once */
+final class BufferClipIndex implements ClipIndex {
+	
+	private static final int HEADER = 40, CLIP = 24, NAME = 8, HASH = 8, SORTED = 4;
+	
+	//the layout, read only with absolute gets (thread safe)
+	private final ByteBuffer bb;
+	private final int clipCount, nameCount, bucketShift, filenameBucketShift;
+	private final int clips, names, hashes, buckets, sorted;
+	private final int filenameHashes, filenameBuckets, pool;
+	private final String filenamePrefix;
+	
+	BufferClipIndex(ByteBuffer bb) throws IOException {
+		this.bb = bb;
+		clipCount = bb.getInt(0);
+		nameCount = bb.getInt(4);
+		int poolSize = bb.getInt(8);
+		int bucketBits = bb.getInt(16);
+		int filenameBucketBits = bb.getInt(20);
+		if (clipCount < 0 || nameCount < 0 || poolSize < 0
+				|| bucketBits < 1 || bucketBits > 30
+				|| filenameBucketBits < 1 || filenameBucketBits > 30
+				|| HEADER + (long)clipCount * (CLIP + HASH)
+					+ (long)nameCount * (NAME + HASH + SORTED)
+					+ ((1L << bucketBits) + 1) * 4
+					+ ((1L << filenameBucketBits) + 1) * 4
+					+ poolSize != bb.limit())
+			throw new IOException("Bad clip index layout");
+		bucketShift = 32 - bucketBits;
+		filenameBucketShift = 32 - filenameBucketBits;
+		clips = HEADER;
+		names = clips + clipCount * CLIP;
+		hashes = names + nameCount * NAME;
+		buckets = hashes + nameCount * HASH;
+		sorted = buckets + ((1 << bucketBits) + 1) * 4;
+		filenameHashes = sorted + nameCount * SORTED;
+		filenameBuckets = filenameHashes + clipCount * HASH;
+		pool = filenameBuckets + ((1 << filenameBucketBits) + 1) * 4;
+		filenamePrefix = string(bb.getInt(12));
+	}
+	
+	//the layout of this clip index
+	ByteBuffer layout() {
+		return bb.duplicate();
+	}
+	
+	@Override
+	public int count() {
+		return clipCount;
+	}
+	
+	@Override
+	public String filename(int clip) {
+		return filenamePrefix.concat(string(bb.getInt(clipPos(clip) + 16)));
+	}
+	
+	@Override
+	public long tagsOffset() {
+		return bb.getLong(24);
+	}
+	
+	@Override
+	public long tagsSize() {
+		return bb.getLong(32);
+	}
+	
+	@Override
+	public long offset(int clip) {
+		return bb.getLong(clipPos(clip));
+	}
+	
+	@Override
+	public long size(int clip) {
+		return bb.getLong(clipPos(clip) + 8);
+	}
+	
+	@Override
+	public String[] names(int clip) {
+		int first = firstName(clip), end = firstName(clip + 1);
+		String[] result = new String[end - first];
+		for (int i = 0; i < result.length; i++)
+			result[i] = string(bb.getInt(names + (first + i) * NAME));
+		return result;
+	}
+	private int clipPos(int clip) {
+		if (clip < 0 || clip >= clipCount)
+			throw new IndexOutOfBoundsException(Integer.toString(clip));
+		return clips + clip * CLIP;
+	}
+	private int firstName(int clip) {
+		return clip == clipCount ? nameCount : bb.getInt(clipPos(clip) + 20);
+	}
+	
+	@Override
+	public int[] find(String name) {
+		int hash = mix(name.hashCode());
+		byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+		
+		//compare the names in the hash bucket
+		int bucket = buckets + (hash >>> bucketShift) * 4;
+		int[] result = new int[0];
+		for (int i = bb.getInt(bucket), end = bb.getInt(bucket + 4); i < end; i++) {
+			if (bb.getInt(hashes + i * HASH) != hash)
+				continue;
+			int namePos = names + bb.getInt(hashes + i * HASH + 4) * NAME;
+			if (stringEquals(bb.getInt(namePos), utf8)) {
+				result = Arrays.copyOf(result, result.length + 1);
+				result[result.length - 1] = bb.getInt(namePos + 4);
+			}
+		}
+		return result;
+	}
+	
+	@Override
+	public int findFilename(String filename) {
+		if (!filename.startsWith(filenamePrefix))
+			return -1;
+		String suffix = filename.substring(filenamePrefix.length());
+		int hash = mix(suffix.hashCode());
+		byte[] utf8 = suffix.getBytes(StandardCharsets.UTF_8);
+		
+		//compare the filenames in the hash bucket
+		int bucket = filenameBuckets + (hash >>> filenameBucketShift) * 4;
+		for (int i = bb.getInt(bucket), end = bb.getInt(bucket + 4); i < end; i++) {
+			if (bb.getInt(filenameHashes + i * HASH) != hash)
+				continue;
+			int clip = bb.getInt(filenameHashes + i * HASH + 4);
+			if (stringEquals(bb.getInt(clipPos(clip) + 16), utf8))
+				return clip;
+		}
+		return -1;
+	}
+	
+	@Override
+	public int nameCount() {
+		return nameCount;
+	}
+	
+	@Override
+	public long hashedName(int i) {
+		if (i < 0 || i >= nameCount)
+			throw new IndexOutOfBoundsException(Integer.toString(i));
+		return bb.getLong(hashes + i * HASH);
+	}
+	
+	@Override
+	public int nameClip(int name) {
+		return bb.getInt(namePos(name) + 4);
+	}
+	
+	@Override
+	public boolean nameEquals(int name, byte[] utf8) {
+		return stringEquals(bb.getInt(namePos(name)), utf8);
+	}
+	private int namePos(int name) {
+		if (name < 0 || name >= nameCount)
+			throw new IndexOutOfBoundsException(Integer.toString(name));
+		return names + name * NAME;
+	}
+	
+	//spread String.hashCode to the top bits (fibonacci hashing)
+	static int mix(int hash) {
+		return hash * 0x9E3779B9;
+	}
+	
+	@Override
+	public int[] findByPrefix(String prefix, int limit) {
+		byte[] utf8 = prefix.getBytes(StandardCharsets.UTF_8);
+		
+		//binary search the first name not below the prefix
+		int lo = 0, hi = nameCount;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compareToPrefix(sortedRef(mid), utf8) < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		
+		//the names starting with the prefix follow
+		int[] result = new int[Math.min(limit, 16)];
+		int len = 0;
+		for (int i = lo; i < nameCount
+				&& compareToPrefix(sortedRef(i), utf8) == 0; i++) {
+			if (len == limit)
+				return result;
+			int clip = bb.getInt(names + bb.getInt(sorted + i * SORTED) * NAME + 4);
+			//a voice clip with several names may already be in the result
+			if (firstName(clip + 1) - firstName(clip) > 1
+					&& Util.contains(result, len, clip))
+				continue;
+			if (len == result.length)
+				result = Arrays.copyOf(result, Math.min(limit, len * 2));
+			result[len++] = clip;
+		}
+		return Arrays.copyOf(result, len);
+	}
+	private int sortedRef(int i) {
+		return bb.getInt(names + bb.getInt(sorted + i * SORTED) * NAME);
+	}
+	
+	//pool strings
+	private String string(int ref) {
+		int pos = pool + ref;
+		byte[] b = new byte[bb.getShort(pos) & 0xFFFF];
+		for (int i = 0; i < b.length; i++)
+			b[i] = bb.get(pos + 2 + i);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+	private boolean stringEquals(int ref, byte[] utf8) {
+		int pos = pool + ref;
+		if ((bb.getShort(pos) & 0xFFFF) != utf8.length)
+			return false;
+		for (int i = 0; i < utf8.length; i++)
+			if (bb.get(pos + 2 + i) != utf8[i])
+				return false;
+		return true;
+	}
+	//compares to the prefix, 0 if starting with the prefix
+	private int compareToPrefix(int ref, byte[] prefix) {
+		int pos = pool + ref;
+		int len = bb.getShort(pos) & 0xFFFF;
+		for (int i = 0; i < prefix.length; i++) {
+			if (i == len)
+				return -1;
+			int cmp = (bb.get(pos + 2 + i) & 0xFF) - (prefix[i] & 0xFF);
+			if (cmp != 0)
+				return cmp;
+		}
+		return 0;
+	}
+	
+	
+	//Encode voice clips to the layout
+	static ByteBuffer encode(
+			String[] filenames, long[] offsets, long[] sizes, String[][] clipNames,
+			long tagsOffset, long tagsSize) throws IOException {
+		int clipCount = filenames.length;
+		
+		//pool the strings, filenames without the common prefix, names once
+		String prefix = commonPrefix(filenames);
+		Map<String, Integer> refs = new HashMap<>();
+		PoolWriter pw = new PoolWriter();
+		int prefixRef = pw.add(prefix);
+		int[] filenameRefs = new int[clipCount];
+		int[] firstNames = new int[clipCount];
+		int nameCount = 0;
+		for (String[] names: clipNames)
+			nameCount += names.length;
+		int[] nameRefs = new int[nameCount];
+		String[] nameStrings = new String[nameCount];
+		int n = 0;
+		for (int i = 0; i < clipCount; i++) {
+			filenameRefs[i] = pw.add(filenames[i].substring(prefix.length()));
+			firstNames[i] = n;
+			for (String name: clipNames[i]) {
+				Integer ref = refs.get(name);
+				if (ref == null) {
+					ref = pw.add(name);
+					refs.put(name, ref);
+				}
+				nameRefs[n] = ref;
+				nameStrings[n++] = name;
+			}
+		}
+		
+		//sort the names by mixed hash (unsigned), then by name
+		int bucketBits = bucketBits(nameCount);
+		long[] hashed = new long[nameCount];
+		for (int i = 0; i < nameCount; i++)
+			hashed[i] = ((long)(mix(nameStrings[i].hashCode()) ^ Integer.MIN_VALUE) << 32) | i;
+		Arrays.sort(hashed);
+		int[] bucketStarts = bucketStarts(hashed, bucketBits);
+		
+		//the same for the filenames without the prefix
+		int filenameBucketBits = bucketBits(clipCount);
+		long[] filenameHashed = new long[clipCount];
+		for (int i = 0; i < clipCount; i++) {
+			int hash = mix(filenames[i].substring(prefix.length()).hashCode());
+			filenameHashed[i] = ((long)(hash ^ Integer.MIN_VALUE) << 32) | i;
+		}
+		Arrays.sort(filenameHashed);
+		int[] filenameBucketStarts = bucketStarts(filenameHashed, filenameBucketBits);
+		
+		//sort the names by code point (UTF-8 bytes), then by name
+		Integer[] sorted = new Integer[nameCount];
+		for (int i = 0; i < nameCount; i++)
+			sorted[i] = i;
+		Arrays.sort(sorted, (i1, i2) -> {
+			int cmp = Util.compareCodePoints(nameStrings[i1], nameStrings[i2]);
+			return cmp != 0 ? cmp : Integer.compare(i1, i2);
+		});
+		
+		//write the layout
+		long size = HEADER + (long)clipCount * (CLIP + HASH)
+			+ (long)nameCount * (NAME + HASH + SORTED)
+			+ bucketStarts.length * 4L
+			+ filenameBucketStarts.length * 4L + pw.size();
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("Clip index too large");
+		//off the java heap, the gc does not copy or scan it
+		ByteBuffer bb = ByteBuffer.allocateDirect((int)size);
+		bb.putInt(clipCount).putInt(nameCount).putInt(pw.size())
+			.putInt(prefixRef).putInt(bucketBits).putInt(filenameBucketBits)
+			.putLong(tagsOffset).putLong(tagsSize);
+		for (int i = 0; i < clipCount; i++) {
+			bb.putLong(offsets[i]).putLong(sizes[i])
+				.putInt(filenameRefs[i]).putInt(firstNames[i]);
+		}
+		for (int i = 0; i < clipCount; i++)
+			for (int j = firstNames[i]; j < firstNames[i] + clipNames[i].length; j++)
+				bb.putInt(nameRefs[j]).putInt(i);
+		for (long l: hashed)
+			bb.putInt((int)(l >> 32) ^ Integer.MIN_VALUE).putInt((int)l);
+		for (int start: bucketStarts)
+			bb.putInt(start);
+		for (int i: sorted)
+			bb.putInt(i);
+		for (long l: filenameHashed)
+			bb.putInt((int)(l >> 32) ^ Integer.MIN_VALUE).putInt((int)l);
+		for (int start: filenameBucketStarts)
+			bb.putInt(start);
+		bb.put(pw.array(), 0, pw.size());
+		bb.flip();
+		return bb;
+	}
+	static int bucketBits(int count) {
+		return Math.min(30, 32 - Integer.numberOfLeadingZeros(Math.max(count, 1)));
+	}
+	//the first entry of each hash bucket, of the sorted hashes
+	static int[] bucketStarts(long[] hashed, int bucketBits) {
+		int[] bucketStarts = new int[(1 << bucketBits) + 1];
+		for (long l: hashed)
+			bucketStarts[(((int)(l >> 32) ^ Integer.MIN_VALUE) >>> (32 - bucketBits)) + 1]++;
+		for (int b = 1; b < bucketStarts.length; b++)
+			bucketStarts[b] += bucketStarts[b - 1];
+		return bucketStarts;
+	}
+	private static String commonPrefix(String[] strings) {
+		if (strings.length == 0)
+			return "";
+		String prefix = strings[0];
+		int len = prefix.length();
+		for (String s: strings) {
+			len = Math.min(len, s.length());
+			for (int i = 0; i < len; i++) {
+				if (s.charAt(i) != prefix.charAt(i)) {
+					len = i;
+					break;
+				}
+			}
+		}
+		//do not split a surrogate pair
+		if (len > 0 && Character.isHighSurrogate(prefix.charAt(len - 1)))
+			len--;
+		return prefix.substring(0, len);
+	}
+	
+	private static final class PoolWriter {
+		private byte[] buf = new byte[1 << 12];
+		private int size;
+		int add(String s) throws IOException {
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			if (b.length > 0xFFFF)
+				throw new IOException("String too long: " + b.length + " bytes");
+			if (size + 2 + b.length > buf.length)
+				buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + 2 + b.length));
+			int ref = size;
+			buf[size++] = (byte)(b.length >>> 8);
+			buf[size++] = (byte)b.length;
+			System.arraycopy(b, 0, buf, size, b.length);
+			size += b.length;
+			return ref;
+		}
+		int size() {
+			return size;
+		}
+		byte[] array() {
+			return buf;
+		}
+	}
+	
+}
@@ -0,0 +1,53 @@
+package sahlaysta.shtooka;
+
+/* the offset data and names of the voice clips of a
+ * shtooka collection, the voice clips are numbered
+ * from 0 in .tar order */
+interface ClipIndex {
+	
+	//number of voice clips
+	int count();
+	
+	//.tar entry filename of a voice clip
+	String filename(int clip);
+	
+	//.tar entry file offset and size of flac/index.xml
+	long tagsOffset();
+	long tagsSize();
+	
+	//.tar entry file offset of a voice clip
+	long offset(int clip);
+	
+	//.tar entry file size of a voice clip
+	long size(int clip);
+	
+	//lowercase tag names of a voice clip
+	String[] names(int clip);
+	
+	/* the voice clips having the lowercase name in .tar
+	 * order, once per name occurrence; empty if none */
+	int[] find(String name);
+	
+	//the voice clip of the .tar entry filename, -1 if none
+	int findFilename(String filename);
+	
+	/* at most limit voice clips having a lowercase name
+	 * starting with the prefix, each voice clip once,
+	 * ordered by name (by code point) and then .tar order */
+	int[] findByPrefix(String prefix, int limit);
+	
+	//number of voice clip names, once per voice clip of each name
+	int nameCount();
+	
+	/* the i-th voice clip name in hash order, its mixed hash
+	 * (BufferClipIndex.mix) in the high int and the name in
+	 * the low int. the names of a hash are in .tar order */
+	long hashedName(int i);
+	
+	//the voice clip of a name
+	int nameClip(int name);
+	
+	//test if a name is the lowercase name, as UTF-8 bytes
+	boolean nameEquals(int name, byte[] utf8);
+	
+}
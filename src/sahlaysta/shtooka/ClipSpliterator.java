@@ -0,0 +1,74 @@
+package sahlaysta.shtooka;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/* the voice clips of a range of a clip index in .tar
+ * order. a split halves the .tar bytes of the range
+ * rather than the number of voice clips, so each part
+ * reads its own contiguous region of the .tar file */
+final class ClipSpliterator implements Spliterator<ShtookaVoiceClip> {
+	
+	private final ShtookaCollection owner;
+	private final ClipIndex index;
+	private int from;//the next voice clip
+	private final int to;//after the last voice clip
+	
+	ClipSpliterator(ShtookaCollection owner, ClipIndex index, int from, int to) {
+		this.owner = owner;
+		this.index = index;
+		this.from = from;
+		this.to = to;
+	}
+	
+	@Override
+	public boolean tryAdvance(Consumer<? super ShtookaVoiceClip> action) {
+		if (from >= to)
+			return false;
+		action.accept(owner.voiceClip(index, from++));
+		return true;
+	}
+	
+	@Override
+	public void forEachRemaining(Consumer<? super ShtookaVoiceClip> action) {
+		int i = from;
+		from = to;
+		for (; i < to; i++)
+			action.accept(owner.voiceClip(index, i));
+	}
+	
+	@Override
+	public Spliterator<ShtookaVoiceClip> trySplit() {
+		if (to - from < 2)
+			return null;
+		
+		//the first voice clip past the middle .tar offset of the range
+		long mid = index.offset(from)
+			+ (index.offset(to - 1) - index.offset(from)) / 2;
+		int lo = from + 1, hi = to - 1;
+		while (lo < hi) {
+			int m = (lo + hi) >>> 1;
+			if (index.offset(m) <= mid)
+				lo = m + 1;
+			else
+				hi = m;
+		}
+		
+		//the prefix is split off, this keeps the rest
+		Spliterator<ShtookaVoiceClip> prefix
+			= new ClipSpliterator(owner, index, from, lo);
+		from = lo;
+		return prefix;
+	}
+	
+	@Override
+	public long estimateSize() {
+		return to - from;
+	}
+	
+	@Override
+	public int characteristics() {
+		return ORDERED | DISTINCT | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+	}
+	
+}
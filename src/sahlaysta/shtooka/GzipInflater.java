@@ -0,0 +1,397 @@
+package sahlaysta.shtooka;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.ZipException;
+
+/* inflates gzip (deflate) data read with positional reads,
+ * and can start at a deflate block boundary in the middle
+ * of the data given its bit position and the last 32 KiB
+ * of output before it (the window). java.util.zip.Inflater
+ * can neither start in the middle of a byte nor tell the
+ * block boundaries. concatenated gzip members are inflated
+ * as one */
+final class GzipInflater {
+	
+	//called at each deflate block boundary
+	interface Listener {
+		void boundary(GzipInflater inflater);
+	}
+	
+	static final int WINDOW = 1 << 15;
+	private static final int MASK = WINDOW - 1;
+	
+	//states
+	private static final int MEMBER = 0, BLOCK = 1, STORED = 2, CODES = 3,
+		TRAILER = 4, END = 5;
+	
+	private final TarChannel fc;
+	private final Listener listener;//null if none
+	
+	//input, bits are read from the low bit
+	private final byte[] buf = new byte[1 << 16];
+	private int bufPos, bufLen;
+	private long filePos;//file position after the buffered input
+	private long bits;
+	private int bitCount;
+	
+	//output
+	private final byte[] window = new byte[WINDOW];
+	private int windowSize;//valid bytes of the window
+	private long out;
+	
+	//decoding state
+	private int state;
+	private boolean lastBlock;
+	private int stored;//remaining bytes of a stored block
+	private int copyLength, copyDistance;
+	private Huffman lengths, distances;
+	
+	//inflates from the start of the gzip file
+	GzipInflater(TarChannel fc, Listener listener) {
+		this.fc = fc;
+		this.listener = listener;
+		this.state = MEMBER;
+	}
+	
+	//inflates from a deflate block boundary
+	GzipInflater(TarChannel fc, Listener listener,
+			long bitPosition, long out, byte[] window) throws IOException {
+		this.fc = fc;
+		this.listener = listener;
+		this.state = BLOCK;
+		this.out = out;
+		for (int i = 0; i < window.length; i++)
+			this.window[(int)(out - window.length + i) & MASK] = window[i];
+		windowSize = window.length;
+		filePos = bitPosition >>> 3;
+		need((int)bitPosition & 7);
+	}
+	
+	//the number of bytes inflated, the .tar position
+	long out() {
+		return out;
+	}
+	
+	//the file bit position of the next deflate block
+	long bitPosition() {
+		return (filePos - (bufLen - bufPos)) * 8 - bitCount;
+	}
+	
+	//the last (at most 32 KiB) bytes inflated
+	byte[] window() {
+		byte[] result = new byte[windowSize];
+		for (int i = 0; i < windowSize; i++)
+			result[i] = window[(int)(out - windowSize + i) & MASK];
+		return result;
+	}
+	
+	/* inflates up to len bytes into the array (or skips them
+	 * if the array is null), returns the number of bytes
+	 * inflated or -1 at the end of the gzip data */
+	int read(byte[] b, int off, int len) throws IOException {
+		int i = off, end = off + len;
+		while (i < end) {
+			//copy a match from the window
+			if (copyLength > 0) {
+				int n = Math.min(copyLength, end - i);
+				for (int j = 0; j < n; j++)
+					i = put(b, i, window[(int)(out - copyDistance) & MASK]);
+				copyLength -= n;
+				continue;
+			}
+			switch (state) {
+			case MEMBER:
+				state = readMember() ? BLOCK : END;
+				break;
+			case BLOCK:
+				if (listener != null)
+					listener.boundary(this);
+				readBlockHeader();
+				break;
+			case STORED:
+				int n = Math.min(stored, end - i);
+				for (int j = 0; j < n; j++)
+					i = put(b, i, (byte)need(8));
+				stored -= n;
+				if (stored == 0)
+					state = lastBlock ? TRAILER : BLOCK;
+				break;
+			case CODES:
+				int sym = decode(lengths);
+				if (sym < 256) {
+					i = put(b, i, (byte)sym);
+				} else if (sym == 256) {
+					state = lastBlock ? TRAILER : BLOCK;
+				} else {
+					sym -= 257;
+					if (sym >= 29)
+						throw new ZipException("Bad gzip length code");
+					copyLength = LENGTH_BASE[sym] + need(LENGTH_EXTRA[sym]);
+					int dist = decode(distances);
+					if (dist >= 30)
+						throw new ZipException("Bad gzip distance code");
+					copyDistance = DISTANCE_BASE[dist] + need(DISTANCE_EXTRA[dist]);
+					if (copyDistance > windowSize)
+						throw new ZipException("Bad gzip distance");
+				}
+				break;
+			case TRAILER:
+				//crc and size, not checked when starting in the middle
+				need(bitCount & 7);
+				need(32);
+				need(32);
+				state = MEMBER;
+				break;
+			default://END
+				return i == off ? -1 : i - off;
+			}
+		}
+		return i - off;
+	}
+	private int put(byte[] b, int i, byte v) {
+		window[(int)out & MASK] = v;
+		out++;
+		if (windowSize < WINDOW)
+			windowSize++;
+		if (b != null)
+			b[i] = v;
+		return i + 1;
+	}
+	
+	//reads a gzip member header, false if there are no more members
+	private boolean readMember() throws IOException {
+		//anything but a gzip header (such as zero padding) ends the data
+		if (!fill(16) || (bits & 0xFFFF) != 0x8B1F)
+			return false;
+		need(16);
+		if (need(8) != 8)
+			throw new ZipException("Unsupported gzip compression method");
+		int flags = need(8);
+		need(32);//modification time
+		need(16);//extra flags, operating system
+		if ((flags & 4) != 0)
+			for (int n = need(16); n > 0; n--)
+				need(8);//extra field
+		if ((flags & 8) != 0)
+			while (need(8) != 0);//file name
+		if ((flags & 16) != 0)
+			while (need(8) != 0);//comment
+		if ((flags & 2) != 0)
+			need(16);//header crc
+		windowSize = 0;
+		return true;
+	}
+	
+	private void readBlockHeader() throws IOException {
+		lastBlock = need(1) == 1;
+		switch (need(2)) {
+		case 0:
+			need(bitCount & 7);
+			stored = need(16);
+			if (need(16) != (~stored & 0xFFFF))
+				throw new ZipException("Bad gzip stored block length");
+			state = stored == 0 ? (lastBlock ? TRAILER : BLOCK) : STORED;
+			break;
+		case 1:
+			lengths = FIXED_LENGTHS;
+			distances = FIXED_DISTANCES;
+			state = CODES;
+			break;
+		case 2:
+			readDynamicTables();
+			state = CODES;
+			break;
+		default:
+			throw new ZipException("Bad gzip block type");
+		}
+	}
+	
+	private static final int[] CODE_LENGTH_ORDER = {
+		16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15 };
+	private void readDynamicTables() throws IOException {
+		int nlen = need(5) + 257, ndist = need(5) + 1, ncode = need(4) + 4;
+		if (nlen > 286 || ndist > 30)
+			throw new ZipException("Bad gzip code counts");
+		
+		//the code length code
+		int[] codeLengths = new int[19];
+		for (int i = 0; i < ncode; i++)
+			codeLengths[CODE_LENGTH_ORDER[i]] = need(3);
+		Huffman codeLengthCode = new Huffman(codeLengths, 0, 19);
+		
+		//the code lengths of the length and distance codes
+		int[] lens = new int[nlen + ndist];
+		for (int i = 0; i < lens.length;) {
+			int sym = decode(codeLengthCode);
+			if (sym < 16) {
+				lens[i++] = sym;
+				continue;
+			}
+			int len = 0, repeat;
+			if (sym == 16) {
+				if (i == 0)
+					throw new ZipException("Bad gzip code length repeat");
+				len = lens[i - 1];
+				repeat = 3 + need(2);
+			} else if (sym == 17) {
+				repeat = 3 + need(3);
+			} else {
+				repeat = 11 + need(7);
+			}
+			if (i + repeat > lens.length)
+				throw new ZipException("Bad gzip code length repeat");
+			while (repeat-- > 0)
+				lens[i++] = len;
+		}
+		if (lens[256] == 0)
+			throw new ZipException("Missing gzip end of block code");
+		lengths = new Huffman(lens, 0, nlen);
+		distances = new Huffman(lens, nlen, ndist);
+	}
+	
+	
+	//Bit input
+	//fills the bit buffer to n bits, false if the file ends first
+	private boolean fill(int n) throws IOException {
+		while (bitCount < n) {
+			if (bufPos == bufLen) {
+				int r = fc.read(ByteBuffer.wrap(buf), filePos);
+				if (r == -1)
+					return false;
+				filePos += r;
+				bufPos = 0;
+				bufLen = r;
+				continue;
+			}
+			bits |= (long)(buf[bufPos++] & 0xFF) << bitCount;
+			bitCount += 8;
+		}
+		return true;
+	}
+	
+	//reads n (at most 32) bits
+	private int need(int n) throws IOException {
+		if (!fill(n))
+			throw new EOFException("Unexpected end of gzip file");
+		int v = (int)(bits & ((1L << n) - 1));
+		bits >>>= n;
+		bitCount -= n;
+		return v;
+	}
+	
+	//decodes a huffman coded symbol
+	private int decode(Huffman h) throws IOException {
+		fill(Huffman.MAX_BITS);//may end before, the missing bits are 0
+		int entry = h.fast[(int)bits & Huffman.FAST_MASK];
+		if (entry != 0) {
+			int len = entry & 15;
+			if (len > bitCount)
+				throw new EOFException("Unexpected end of gzip file");
+			bits >>>= len;
+			bitCount -= len;
+			return entry >>> 4;
+		}
+		
+		//longer codes, canonical decoding one bit at a time
+		int code = 0, first = 0, index = 0;
+		for (int len = 1; len <= Huffman.MAX_BITS; len++) {
+			code |= (int)(bits >>> (len - 1)) & 1;
+			int count = h.count[len];
+			if (code - first < count) {
+				if (len > bitCount)
+					throw new EOFException("Unexpected end of gzip file");
+				bits >>>= len;
+				bitCount -= len;
+				return h.symbol[index + code - first];
+			}
+			index += count;
+			first = (first + count) << 1;
+			code <<= 1;
+		}
+		throw new ZipException("Bad gzip huffman code");
+	}
+	
+	
+	//Huffman codes
+	private static final class Huffman {
+		
+		static final int MAX_BITS = 15, FAST_BITS = 9;
+		static final int FAST_MASK = (1 << FAST_BITS) - 1;
+		
+		//symbol << 4 | length by the next FAST_BITS bits, 0 if longer
+		final int[] fast = new int[1 << FAST_BITS];
+		
+		//the number of codes of each length, and the symbols by code
+		final int[] count = new int[MAX_BITS + 1];
+		final int[] symbol;
+		
+		Huffman(int[] lens, int off, int n) throws ZipException {
+			symbol = new int[n];
+			for (int i = 0; i < n; i++)
+				count[lens[off + i]]++;
+			count[0] = 0;
+			
+			//reject over-subscribed codes
+			int left = 1;
+			for (int len = 1; len <= MAX_BITS; len++) {
+				left = (left << 1) - count[len];
+				if (left < 0)
+					throw new ZipException("Bad gzip huffman code lengths");
+			}
+			
+			//canonical codes, first code and symbol of each length
+			int[] nextCode = new int[MAX_BITS + 2];
+			int[] nextIndex = new int[MAX_BITS + 2];
+			for (int len = 1; len <= MAX_BITS; len++) {
+				nextCode[len + 1] = (nextCode[len] + count[len]) << 1;
+				nextIndex[len + 1] = nextIndex[len] + count[len];
+			}
+			for (int sym = 0; sym < n; sym++) {
+				int len = lens[off + sym];
+				if (len == 0)
+					continue;
+				symbol[nextIndex[len]++] = sym;
+				int code = nextCode[len]++;
+				if (len <= FAST_BITS) {
+					//the code is read from the low bit, reversed
+					int reversed = Integer.reverse(code) >>> (32 - len);
+					for (int i = reversed; i < fast.length; i += 1 << len)
+						fast[i] = sym << 4 | len;
+				}
+			}
+		}
+	
+	}
+	
+	private static final Huffman FIXED_LENGTHS, FIXED_DISTANCES;
+	static {
+		int[] lens = new int[288 + 30];
+		for (int i = 0; i < 288; i++)
+			lens[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+		for (int i = 288; i < lens.length; i++)
+			lens[i] = 5;
+		try {
+			FIXED_LENGTHS = new Huffman(lens, 0, 288);
+			FIXED_DISTANCES = new Huffman(lens, 288, 30);
+		} catch (ZipException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+	
+	private static final int[] LENGTH_BASE = {
+		3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+		35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258 };
+	private static final int[] LENGTH_EXTRA = {
+		0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+		3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0 };
+	private static final int[] DISTANCE_BASE = {
+		1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+		257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145,
+		8193, 12289, 16385, 24577 };
+	private static final int[] DISTANCE_EXTRA = {
+		0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+		7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13 };
+	
+}
@@ -0,0 +1,206 @@
+package sahlaysta.shtooka;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/* the contents of a gzip compressed .tar file (.tar.gz),
+ * read at any position by inflating from the nearest
+ * checkpoint before it. the first time through the file,
+ * a checkpoint (the bit position of a deflate block and
+ * the window before it) is taken about every SPAN bytes
+ * of .tar output, and once the whole file was inflated
+ * the checkpoints are saved to a .gzidx file next to it */
+final class GzipTar implements TarInput, GzipInflater.Listener {
+	
+	//checkpoint file format
+	static final String EXTENSION = ".gzidx";
+	private static final int MAGIC = 0x5348545A;//"SHTZ"
+	private static final int VERSION = 1;
+	
+	//.tar bytes between checkpoints
+	private static final int SPAN = 1 << 20;
+	
+	private final File file;
+	private final TarChannel fc;
+	
+	//the checkpoints in .tar order
+	private long[] bitPositions = new long[16], outs = new long[16];
+	private byte[][] windows = new byte[16][];
+	private int count;
+	private boolean complete;//taken through the end of the file
+	
+	//the inflater of the last read, read on if reading forward
+	private GzipInflater cursor;
+	private final byte[] scratch = new byte[1 << 16];
+	
+	GzipTar(File file, TarChannel fc) {
+		this.file = file;
+		this.fc = fc;
+		load();
+	}
+	
+	//test if a file starts with the gzip magic number
+	static boolean isGzip(TarChannel fc) throws IOException {
+		ByteBuffer bb = ByteBuffer.allocate(2);
+		while (bb.hasRemaining() && fc.read(bb, bb.position()) != -1);
+		return bb.position() == 2 && bb.get(0) == 0x1F && bb.get(1) == (byte)0x8B;
+	}
+	
+	@Override
+	public synchronized int read(ByteBuffer dst, long pos) throws IOException {
+		if (!dst.hasRemaining())
+			return 0;
+		
+		//start from the nearest checkpoint unless the cursor is on the way
+		int cp = checkpoint(pos);
+		if (cursor == null || cursor.out() > pos
+				|| (cp != -1 && cursor.out() < outs[cp]))
+			cursor = cp == -1
+				? new GzipInflater(fc, this)
+				: new GzipInflater(fc, this, bitPositions[cp], outs[cp], windows[cp]);
+		
+		//inflate up to the position, then into the buffer
+		while (cursor.out() < pos) {
+			int n = (int)Math.min(pos - cursor.out(), scratch.length);
+			if (cursor.read(null, 0, n) == -1)
+				return end();
+		}
+		int n = cursor.read(scratch, 0, Math.min(dst.remaining(), scratch.length));
+		if (n == -1)
+			return end();
+		dst.put(scratch, 0, n);
+		return n;
+	}
+	//the last checkpoint at or before the position, -1 if none
+	private int checkpoint(long pos) {
+		int i = Arrays.binarySearch(outs, 0, count, pos);
+		return i >= 0 ? i : -i - 2;
+	}
+	private int end() {
+		if (!complete) {
+			//checkpoints are taken in order, so there is no gap
+			complete = true;
+			save();
+		}
+		return -1;
+	}
+	
+	@Override
+	public void boundary(GzipInflater inflater) {
+		long out = inflater.out();
+		if (complete || out < (count == 0 ? SPAN : outs[count - 1] + SPAN))
+			return;
+		if (count == outs.length) {
+			bitPositions = Arrays.copyOf(bitPositions, count * 2);
+			outs = Arrays.copyOf(outs, count * 2);
+			windows = Arrays.copyOf(windows, count * 2);
+		}
+		bitPositions[count] = inflater.bitPosition();
+		outs[count] = out;
+		windows[count] = inflater.window();
+		count++;
+	}
+	
+	
+	/* the checkpoint file:
+	 *   int magic, int version,
+	 *   long .tar.gz length, long .tar.gz modified,
+	 *   int checkpoint count
+	 *   per checkpoint: long bit position, long .tar
+	 *     position, int window length, window bytes */
+	private File checkpointFile() {
+		return new File(file.getPath() + EXTENSION);
+	}
+	
+	//reads the checkpoints, unless missing, corrupt or stale
+	private void load() {
+		File cpFile = checkpointFile();
+		if (!cpFile.isFile())
+			return;
+		try (FileChannel cfc = FileChannel.open(cpFile.toPath())) {
+			long size = cfc.size();
+			if (size > Integer.MAX_VALUE)
+				return;
+			ByteBuffer bb = ByteBuffer.allocate((int)size);
+			while (bb.hasRemaining() && cfc.read(bb) != -1);
+			bb.flip();
+			if (bb.getInt() != MAGIC
+					|| bb.getInt() != VERSION
+					|| bb.getLong() != fc.size()
+					|| bb.getLong() != file.lastModified())
+				return;
+			//each checkpoint takes at least 20 bytes of the file
+			int n = bb.getInt();
+			if (n < 0 || n > bb.remaining() / (8 + 8 + 4))
+				return;
+			long bits = fc.size() * 8;
+			long[] bitPositions = new long[Math.max(n, 16)];
+			long[] outs = new long[bitPositions.length];
+			byte[][] windows = new byte[bitPositions.length][];
+			for (int i = 0; i < n; i++) {
+				bitPositions[i] = bb.getLong();
+				outs[i] = bb.getLong();
+				int windowLength = bb.getInt();
+				if (bitPositions[i] < 0 || bitPositions[i] >= bits
+						|| outs[i] < 0 || (i > 0 && outs[i] <= outs[i - 1])
+						|| windowLength < 0 || windowLength > GzipInflater.WINDOW
+						|| windowLength > bb.remaining())
+					return;
+				windows[i] = new byte[windowLength];
+				bb.get(windows[i]);
+			}
+			this.bitPositions = bitPositions;
+			this.outs = outs;
+			this.windows = windows;
+			this.count = n;
+			this.complete = true;
+		} catch (IOException | RuntimeException e) {
+			//corrupt checkpoint file, take the checkpoints again
+		}
+	}
+	
+	/* writes the checkpoints through a temporary file of
+	 * its own (another process may be saving the same
+	 * checkpoints), if the file is not writable they are
+	 * taken again the next time */
+	private void save() {
+		long size = 4 + 4 + 8 + 8 + 4;
+		for (int i = 0; i < count; i++)
+			size += 8 + 8 + 4 + windows[i].length;
+		if (size > Integer.MAX_VALUE)
+			return;
+		File cpFile = checkpointFile();
+		Path temp = null;
+		try {
+			ByteBuffer bb = ByteBuffer.allocate((int)size);
+			bb.putInt(MAGIC).putInt(VERSION)
+				.putLong(fc.size()).putLong(file.lastModified())
+				.putInt(count);
+			for (int i = 0; i < count; i++) {
+				bb.putLong(bitPositions[i]).putLong(outs[i])
+					.putInt(windows[i].length).put(windows[i]);
+			}
+			bb.flip();
+			temp = Util.createTempFile(cpFile);
+			try (FileChannel cfc = FileChannel.open(temp,
+					StandardOpenOption.WRITE)) {
+				while (bb.hasRemaining())
+					cfc.write(bb);
+			}
+			Files.move(temp, cpFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			if (temp != null)
+				temp.toFile().delete();
+		}
+	}
+	
+}
@@ -0,0 +1,155 @@
+package sahlaysta.shtooka;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/* reads and writes the .shtidx index file of a shtooka
+ * collection. an index file read is the clip index and
+ * the .tar file scan it was written from */
+final class IndexFile {
+	
+	//index file format
+	static final String EXTENSION = ".shtidx";
+	private static final int MAGIC = 0x53485449;//"SHTI"
+	private static final int VERSION = 9;
+	
+	//the index file of a .tar file
+	static File of(File tar) {
+		return new File(tar.getPath() + EXTENSION);
+	}
+	
+	//crc of the first .tar header block
+	static long fingerprint(TarChannel channel) throws IOException {
+		ByteBuffer bb = ByteBuffer.allocate(512);
+		while (bb.hasRemaining() && channel.read(bb, bb.position()) != -1);
+		return crc(bb);
+	}
+	
+	//crc of a .tar header block, -1 if the .tar file ends first
+	static long headerCrc(TarInput input, long pos) throws IOException {
+		ByteBuffer bb = ByteBuffer.allocate(512);
+		while (bb.hasRemaining())
+			if (input.read(bb, pos + bb.position()) == -1)
+				return -1;
+		return crc(bb);
+	}
+	
+	private static long crc(ByteBuffer bb) {
+		CRC32 crc = new CRC32();
+		crc.update(bb.array(), 0, bb.position());
+		return crc.getValue();
+	}
+	
+	/* the header of the index file is followed by
+	 * the layout of a buffer clip index:
+	 *   int magic, int version,
+	 *   long .tar length, long .tar modified,
+	 *   long .tar fingerprint,
+	 *   long .tar scan end (after the last entry),
+	 *   long last .tar entry header block position,
+	 *   long last .tar entry header block crc */
+	private static final int HEADER = 56;
+	
+	//the clip index of the index file
+	final ClipIndex index;
+	
+	//the .tar file when the index file was written
+	final long tarLength, tarModified;
+	
+	//the end of the scanned .tar entries, and the last header block
+	final long scanEnd, lastHeader, lastHeaderCrc;
+	
+	private IndexFile(ByteBuffer bb) throws IOException {
+		tarLength = bb.getLong(8);
+		tarModified = bb.getLong(16);
+		scanEnd = bb.getLong(32);
+		lastHeader = bb.getLong(40);
+		lastHeaderCrc = bb.getLong(48);
+		bb.position(HEADER);
+		index = new BufferClipIndex(bb.slice());
+	}
+	
+	//test if the .tar file is unchanged
+	boolean isCurrent(long tarLength, long tarModified) {
+		return this.tarLength == tarLength && this.tarModified == tarModified;
+	}
+	
+	/* test if .tar entries were only appended to the .tar
+	 * file, by the unchanged header block of the last entry */
+	boolean isAppended(TarInput input) throws IOException {
+		return lastHeader != -1 && headerCrc(input, lastHeader) == lastHeaderCrc;
+	}
+	
+	/* reads the index file, or returns null if it does
+	 * not exist, is corrupt, or is of another .tar file.
+	 * the index file is either read whole at once to a
+	 * direct buffer or memory-mapped */
+	static IndexFile read(File file, boolean mapped, long fingerprint) {
+		if (!file.isFile())
+			return null;
+		try (FileChannel fc = FileChannel.open(file.toPath())) {
+			long size = fc.size();
+			if (size < HEADER || size > Integer.MAX_VALUE)
+				return null;
+			ByteBuffer bb;
+			if (mapped) {
+				bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			} else {
+				bb = ByteBuffer.allocateDirect((int)size);
+				while (bb.hasRemaining() && fc.read(bb) != -1);
+				bb.flip();
+			}
+			
+			//header
+			if (bb.getInt(0) != MAGIC
+					|| bb.getInt(4) != VERSION
+					|| bb.getLong(24) != fingerprint)
+				return null;
+			
+			//clip index
+			return new IndexFile(bb);
+		} catch (IOException | RuntimeException e) {
+			return null;//corrupt index file
+		}
+	}
+	
+	/* writes the clip index to the index file, through
+	 * a temporary file of its own so that a partially
+	 * written index file is never read, even while
+	 * another process writes the same index file */
+	static void write(
+			File file, BufferClipIndex index,
+			long tarLength, long tarModified, long fingerprint,
+			long scanEnd, long lastHeader, long lastHeaderCrc)
+			throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		header.putInt(MAGIC).putInt(VERSION)
+			.putLong(tarLength).putLong(tarModified).putLong(fingerprint)
+			.putLong(scanEnd).putLong(lastHeader).putLong(lastHeaderCrc);
+		header.flip();
+		ByteBuffer layout = index.layout();
+		Path temp = Util.createTempFile(file);
+		try {
+			try (FileChannel fc = FileChannel.open(temp,
+					StandardOpenOption.WRITE)) {
+				ByteBuffer[] bbs = { header, layout };
+				while (layout.hasRemaining())
+					fc.write(bbs);
+			}
+			Files.move(temp, file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+	}
+	
+}
@@ -0,0 +1,190 @@
+package sahlaysta.shtooka;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/* parses the tags of the flac/index.xml file of a
+ * shtooka collection directly from its UTF-8 bytes,
+ * in one walk over its elements. the delimiters are
+ * searched byte by byte (comment ends with a skip
+ * table, Boyer-Moore-Horspool) and only the element
+ * names and the attributes are decoded to strings */
+final class IndexXmlParser {
+	
+	//called for each tag
+	interface Handler {
+		/* the filename of the tag, its swac_text (as is),
+		 * and the attributes of the xml element having
+		 * the swac_text and of its enclosing elements as
+		 * name, value pairs */
+		void tag(String filename, String swactext, String[] attributes)
+			throws IOException;
+	}
+	
+	private static final byte[] COMMENT_END = ascii("-->");
+	private static final int[] COMMENT_SKIP = skipTable(COMMENT_END);
+	
+	/* walks the xml elements, keeping the attributes of the
+	 * open elements. an element having a swac_text is a tag
+	 * of the last file path, with the attributes of the
+	 * enclosing elements (such as swac_lang on a <group>)
+	 * and its own, the innermost value of an attribute
+	 * winning. the path of a <file> element is not an
+	 * attribute of its tags, it is their filename */
+	static void parse(
+			byte[] xml, String filenamePrefix, Handler handler) throws IOException {
+		List<String[]> open = new ArrayList<>();//attributes of the open elements
+		String filename = null;
+		int[] end = new int[1];
+		int i = 0;
+		while ((i = indexOf(xml, i, '<')) < xml.length) {
+			i++;
+			if (i >= xml.length)
+				break;
+			if (xml[i] == '!' || xml[i] == '?') {
+				//comment, doctype or declaration
+				i = xml.length - i > 2 && xml[i + 1] == '-' && xml[i + 2] == '-'
+					? indexOf(xml, i, COMMENT_END, COMMENT_SKIP)
+					: indexOf(xml, i, '>');
+				if (i == -1)
+					break;
+				continue;
+			}
+			if (xml[i] == '/') {
+				//end tag
+				if (!open.isEmpty())
+					open.remove(open.size() - 1);
+				i = indexOf(xml, i, '>');
+				continue;
+			}
+			
+			//start tag
+			int nameStart = i;
+			while (i < xml.length && xml[i] != '>' && xml[i] != '/' && !isSpace(xml[i]))
+				i++;
+			String name = string(xml, nameStart, i);
+			String[] attributes = readAttributes(xml, i, end);
+			i = end[0];
+			boolean empty = i > 0 && i < xml.length && xml[i - 1] == '/';
+			
+			//a file or a tag
+			String swactext = null;
+			for (int a = 0; a + 1 < attributes.length; a += 2) {
+				if (name.equals("file") && attributes[a].equals("path")) {
+					filename = filenamePrefix + attributes[a + 1];
+					attributes = remove(attributes, a);
+					a -= 2;
+				} else if (attributes[a].equals("swac_text")) {
+					swactext = attributes[a + 1];
+				}
+			}
+			if (swactext != null && filename != null)
+				handler.tag(filename, swactext, inherit(open, attributes));
+			if (!empty)
+				open.add(attributes);
+		}
+	}
+	
+	//the attributes of the open elements and the element, innermost winning
+	private static String[] inherit(List<String[]> open, String[] attributes) {
+		Map<String, String> result = new LinkedHashMap<>();
+		for (String[] outer: open)
+			for (int a = 0; a + 1 < outer.length; a += 2)
+				result.put(outer[a], outer[a + 1]);
+		for (int a = 0; a + 1 < attributes.length; a += 2)
+			result.put(attributes[a], attributes[a + 1]);
+		String[] pairs = new String[result.size() * 2];
+		int n = 0;
+		for (Map.Entry<String, String> e: result.entrySet()) {
+			pairs[n++] = e.getKey();
+			pairs[n++] = e.getValue();
+		}
+		return pairs;
+	}
+	private static String[] remove(String[] attributes, int a) {
+		String[] result = new String[attributes.length - 2];
+		System.arraycopy(attributes, 0, result, 0, a);
+		System.arraycopy(attributes, a + 2, result, a, result.length - a);
+		return result;
+	}
+	
+	/* the name="value" attribute pairs of an xml element
+	 * from after its name, end[0] is set to its '>' */
+	private static String[] readAttributes(byte[] xml, int start, int[] end) {
+		List<String> result = new ArrayList<>();
+		int i = start;
+		while (true) {
+			while (i < xml.length && isSpace(xml[i]))
+				i++;
+			int nameStart = i;
+			while (i < xml.length && xml[i] != '=' && xml[i] != '>'
+					&& xml[i] != '/' && !isSpace(xml[i]))
+				i++;
+			if (i >= xml.length || xml[i] != '=' || i + 1 >= xml.length)
+				break;
+			byte quote = xml[i + 1];
+			if (quote != '"' && quote != '\'')
+				break;
+			int valueEnd = indexOf(xml, i + 2, quote);
+			result.add(string(xml, nameStart, i));
+			result.add(string(xml, i + 2, valueEnd));
+			i = valueEnd + 1;
+		}
+		end[0] = indexOf(xml, i, '>');
+		return result.toArray(new String[result.size()]);
+	}
+	
+	
+	//Byte searching
+	private static int[] skipTable(byte[] delim) {
+		//horspool bad character shifts
+		int[] skip = new int[256];
+		for (int i = 0; i < skip.length; i++)
+			skip[i] = delim.length;
+		for (int i = 0; i < delim.length - 1; i++)
+			skip[delim[i] & 0xFF] = delim.length - 1 - i;
+		return skip;
+	}
+	
+	//the index after the delimiter, or -1 if not found
+	private static int indexOf(byte[] b, int from, byte[] delim, int[] skip) {
+		int last = delim.length - 1;
+		for (int i = from + last; i < b.length; i += skip[b[i] & 0xFF]) {
+			int j = last, k = i;
+			while (b[k] == delim[j]) {
+				if (j == 0)
+					return i + 1;
+				j--;
+				k--;
+			}
+		}
+		return -1;
+	}
+	
+	//the index of the byte, or the end if not found
+	private static int indexOf(byte[] b, int from, int c) {
+		for (int i = from; i < b.length; i++)
+			if (b[i] == c)
+				return i;
+		return b.length;
+	}
+	
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+	}
+	
+	private static String string(byte[] b, int start, int end) {
+		return new String(b, start, end - start, StandardCharsets.UTF_8);
+	}
+	
+	private static byte[] ascii(String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+	
+	private IndexXmlParser() {}
+	
+}
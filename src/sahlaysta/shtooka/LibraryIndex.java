@@ -0,0 +1,117 @@
+package sahlaysta.shtooka;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/* the names of the collections of a language of a shtooka
+ * library merged into one hash table, read directly from a
+ * direct byte buffer like a BufferClipIndex. it keeps the
+ * hashes and the names of the clip indexes, not the name
+ * strings, which are compared in the clip index of each.
+ *
+ * layout (big endian):
+ *   int entry count, int hash bucket bits
+ *   entries: per voice clip name of each collection, ordered
+ *     by mixed hash (unsigned), then by collection and then
+ *     name: int mixed hash, int collection, int name
+ *   buckets: per hash bucket, and one more: int first
+ *     entry whose top mixed hash bits are at least the bucket */
+final class LibraryIndex {
+	
+	private static final int HEADER = 8, ENTRY = 12;
+	
+	//the clip indexes of the collections, by library collection
+	private final ClipIndex[] indexes;
+	
+	//the layout, read only with absolute gets (thread safe)
+	private final ByteBuffer bb;
+	private final int bucketShift, buckets;
+	
+	//the clip indexes of the library and the collections of the language
+	LibraryIndex(ClipIndex[] indexes, int[] collections) throws IOException {
+		this.indexes = indexes;
+		
+		//the names of each collection are already in hash order
+		int[] starts = new int[collections.length + 1];
+		for (int c = 0; c < collections.length; c++) {
+			long start = (long)starts[c] + indexes[collections[c]].nameCount();
+			if (start > Integer.MAX_VALUE)
+				throw new IOException("Library index too large");
+			starts[c + 1] = (int)start;
+		}
+		int entryCount = starts[collections.length];
+		
+		//sort by mixed hash (unsigned), then by collection and name
+		long[] hashed = new long[entryCount];
+		for (int c = 0; c < collections.length; c++) {
+			ClipIndex index = indexes[collections[c]];
+			for (int i = 0; i < starts[c + 1] - starts[c]; i++) {
+				int hash = (int)(index.hashedName(i) >> 32);
+				hashed[starts[c] + i] = ((long)(hash ^ Integer.MIN_VALUE) << 32) | (starts[c] + i);
+			}
+		}
+		Arrays.sort(hashed);
+		int bucketBits = BufferClipIndex.bucketBits(entryCount);
+		int[] bucketStarts = BufferClipIndex.bucketStarts(hashed, bucketBits);
+		
+		//write the layout
+		long size = HEADER + (long)entryCount * ENTRY + bucketStarts.length * 4L;
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("Library index too large");
+		//off the java heap, the gc does not copy or scan it
+		bb = ByteBuffer.allocateDirect((int)size);
+		bb.putInt(entryCount).putInt(bucketBits);
+		for (long l: hashed) {
+			int entry = (int)l;
+			int c = collection(starts, entry);
+			int name = (int)indexes[collections[c]].hashedName(entry - starts[c]);
+			bb.putInt((int)(l >> 32) ^ Integer.MIN_VALUE)
+				.putInt(collections[c]).putInt(name);
+		}
+		for (int start: bucketStarts)
+			bb.putInt(start);
+		bb.flip();
+		bucketShift = 32 - bucketBits;
+		buckets = HEADER + entryCount * ENTRY;
+	}
+	
+	//the last collection starting at or before the entry
+	private static int collection(int[] starts, int entry) {
+		int lo = 0, hi = starts.length - 2;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (starts[mid] <= entry)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+	
+	/* the voice clips having the lowercase name, each as the
+	 * collection in the high int and the voice clip in the low
+	 * int, in collection and .tar order; empty if none */
+	long[] find(String name) {
+		int hash = BufferClipIndex.mix(name.hashCode());
+		byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+		
+		//compare the names in the hash bucket
+		int bucket = buckets + (hash >>> bucketShift) * 4;
+		long[] result = new long[0];
+		for (int i = bb.getInt(bucket), end = bb.getInt(bucket + 4); i < end; i++) {
+			int pos = HEADER + i * ENTRY;
+			if (bb.getInt(pos) != hash)
+				continue;
+			int collection = bb.getInt(pos + 4), n = bb.getInt(pos + 8);
+			ClipIndex index = indexes[collection];
+			if (index.nameEquals(n, utf8)) {
+				result = Arrays.copyOf(result, result.length + 1);
+				result[result.length - 1] = ((long)collection << 32) | index.nameClip(n);
+			}
+		}
+		return result;
+	}
+	
+}
@@ -0,0 +1,150 @@
+package sahlaysta.shtooka;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/* an aho-corasick automaton of the voice clip names (in
+ * chars), finds every name occurring in a text in one
+ * pass over the text, to segment the text into names */
+final class NameAutomaton {
+	
+	//the trie edges, sorted by char per state (state 0 is the root)
+	private final int[] edgeStart;
+	private final char[] edgeChars;
+	private final int[] edgeTargets;
+	
+	//per state: name length, failure link, voice clip if a name
+	//ends here (else -1), next state on the failure links that is a name
+	private final int[] depth, fail, clip, output;
+	
+	//the names and their voice clips
+	NameAutomaton(String[] names, int[] clips) {
+		//the trie, edges keyed by state and char
+		Map<Long, Integer> edges = new HashMap<>();
+		int[] depth = new int[16], clip = new int[16];
+		clip[0] = -1;
+		int states = 1;
+		for (int n = 0; n < names.length; n++) {
+			String name = names[n];
+			if (name.isEmpty())
+				continue;
+			int state = 0;
+			for (int i = 0; i < name.length(); i++) {
+				Long key = ((long)state << 16) | name.charAt(i);
+				Integer target = edges.get(key);
+				if (target == null) {
+					if (states == depth.length) {
+						depth = Arrays.copyOf(depth, states * 2);
+						clip = Arrays.copyOf(clip, states * 2);
+					}
+					depth[states] = i + 1;
+					clip[states] = -1;
+					target = states++;
+					edges.put(key, target);
+				}
+				state = target;
+			}
+			if (clip[state] == -1)
+				clip[state] = clips[n];
+		}
+		this.depth = Arrays.copyOf(depth, states);
+		this.clip = Arrays.copyOf(clip, states);
+		
+		//the edges sorted by state and char
+		long[] keys = new long[edges.size()];
+		int k = 0;
+		for (long key: edges.keySet())
+			keys[k++] = key;
+		Arrays.sort(keys);
+		edgeStart = new int[states + 1];
+		edgeChars = new char[keys.length];
+		edgeTargets = new int[keys.length];
+		for (int e = 0; e < keys.length; e++) {
+			edgeStart[(int)(keys[e] >>> 16) + 1]++;
+			edgeChars[e] = (char)keys[e];
+			edgeTargets[e] = edges.get(keys[e]);
+		}
+		for (int s = 0; s < states; s++)
+			edgeStart[s + 1] += edgeStart[s];
+		
+		//the failure and output links, breadth first
+		fail = new int[states];
+		output = new int[states];
+		output[0] = -1;
+		int[] queue = new int[states];
+		int head = 0, tail = 0;
+		queue[tail++] = 0;
+		while (head < tail) {
+			int state = queue[head++];
+			for (int e = edgeStart[state]; e < edgeStart[state + 1]; e++) {
+				int target = edgeTargets[e];
+				int f = state == 0 ? -1 : next(fail[state], edgeChars[e]);
+				fail[target] = f == -1 ? 0 : f;
+				output[target] = this.clip[fail[target]] != -1
+					? fail[target] : output[fail[target]];
+				queue[tail++] = target;
+			}
+		}
+	}
+	
+	//the state after the char, following failure links
+	private int next(int state, char c) {
+		while (true) {
+			int target = edge(state, c);
+			if (target != -1)
+				return target;
+			if (state == 0)
+				return -1;
+			state = fail[state];
+		}
+	}
+	//the trie edge of the char, -1 if none
+	private int edge(int state, char c) {
+		int lo = edgeStart[state], hi = edgeStart[state + 1] - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (edgeChars[mid] < c)
+				lo = mid + 1;
+			else if (edgeChars[mid] > c)
+				hi = mid - 1;
+			else
+				return edgeTargets[mid];
+		}
+		return -1;
+	}
+	
+	/* the voice clips of the names segmenting the text, left
+	 * to right taking the longest name starting at each
+	 * position, skipping chars that start no name */
+	int[] segment(String text) {
+		//the longest name starting at each char
+		int len = text.length();
+		int[] longest = new int[len], longestClip = new int[len];
+		int state = 0;
+		for (int i = 0; i < len; i++) {
+			int next = next(state, text.charAt(i));
+			state = next == -1 ? 0 : next;
+			for (int s = clip[state] != -1 ? state : output[state]; s != -1; s = output[s]) {
+				int start = i + 1 - depth[s];
+				if (depth[s] > longest[start]) {
+					longest[start] = depth[s];
+					longestClip[start] = clip[s];
+				}
+			}
+		}
+		
+		//the names left to right
+		int[] result = new int[16];
+		int count = 0;
+		for (int i = 0; i < len; i += Math.max(longest[i], 1)) {
+			if (longest[i] == 0)
+				continue;
+			if (count == result.length)
+				result = Arrays.copyOf(result, count * 2);
+			result[count++] = longestClip[i];
+		}
+		return Arrays.copyOf(result, count);
+	}
+	
+}
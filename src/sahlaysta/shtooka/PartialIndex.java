@@ -0,0 +1,69 @@
+package sahlaysta.shtooka;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/* the voice clips indexed so far while a shtooka
+ * collection is being opened in the background.
+ * voice clips are added in .tar order once their
+ * names are known. the voice clips are released when
+ * the indexing ends, the clip index then has them */
+final class PartialIndex {
+	
+	private List<String> filenames = new ArrayList<>();
+	private List<long[]> offsetSizes = new ArrayList<>();
+	private List<String[]> names = new ArrayList<>();
+	
+	//the first voice clip having each name
+	private Map<String, Integer> first = new HashMap<>();
+	
+	//true when the indexing has ended, the voice clips are then null
+	private boolean finished;
+	
+	synchronized void add(String filename, long offset, long size, String[] names) {
+		if (finished)
+			return;
+		int clip = filenames.size();
+		filenames.add(filename);
+		offsetSizes.add(new long[] { offset, size });
+		this.names.add(names);
+		for (String name: names)
+			first.putIfAbsent(name, clip);
+		notifyAll();
+	}
+	
+	synchronized void finish() {
+		finished = true;
+		filenames = null;
+		offsetSizes = null;
+		names = null;
+		first = null;
+		notifyAll();
+	}
+	
+	/* waits until a voice clip having the lowercase name
+	 * is indexed and returns it, or returns null once the
+	 * indexing has ended (the clip index then has it) */
+	synchronized ShtookaVoiceClip await(ShtookaCollection owner, String name) {
+		Integer clip = null;
+		boolean interrupted = false;
+		while (!finished && (clip = first.get(name)) == null) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;//keep waiting, as CompletableFuture.join
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		if (clip == null)
+			return null;
+		long[] offsetSize = offsetSizes.get(clip);
+		return new ShtookaVoiceClip(
+			owner, filenames.get(clip), offsetSize[0], offsetSize[1],
+			names.get(clip).clone());
+	}
+	
+}
@@ -1,18 +1,34 @@
 package sahlaysta.shtooka;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
-import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.nio.channels.Channels;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
@@ -21,7 +37,10 @@ import javax.sound.sampled.SourceDataLine;
 import javax.sound.sampled.DataLine.Info;
 
 import io.nayuki.flac.common.StreamInfo;
+import io.nayuki.flac.decode.ByteArrayFlacInput;
+import io.nayuki.flac.decode.DataFormatException;
 import io.nayuki.flac.decode.FlacDecoder;
+import io.nayuki.flac.decode.FlacLowLevelInput;
 
 /**
  * Manages and plays audio voice clips from a Shtooka
@@ -30,6 +49,17 @@ import io.nayuki.flac.decode.FlacDecoder;
  * Those files are downloadable on Shtooka's page:
  * http://shtooka.net/download.php
  * 
+ * <p>The .tar file may also be gzip compressed
+ * (.tar.gz). The first time through it, the
+ * inflate state is saved about every megabyte
+ * of .tar file to a checkpoint file next to it
+ * ({@code cmn-caen-tan_flac.tar.gz.gzidx}), and
+ * each voice clip is then inflated from the
+ * nearest checkpoint before it. Opening a gzip
+ * compressed collection inflates all of it unless
+ * the voice clips are loaded from an index file
+ * ({@link ShtookaIndexMode#INDEX_FILE}).
+ * 
  * <p>Extends {@link RandomAccessFile} (read only)
  * and should also be closed with the {@link #close()} method.
  * The operations of a Shtooka Collection will no
@@ -37,17 +67,61 @@ import io.nayuki.flac.decode.FlacDecoder;
  * {@link UnsupportedOperationException}
  * after it is closed.
  * 
+ * <p>Voice clips may be decoded, streamed and
+ * transferred from separate threads at the same
+ * time: each reads the .tar file with positional
+ * reads of its own. As with the reads of a
+ * {@link RandomAccessFile}, interrupting a thread
+ * decoding or streaming a voice clip does not stop
+ * its reads, and interrupting a thread never closes
+ * the .tar file to the other threads.
+ * 
  * @author sahlaysta
  * @see ShtookaVoiceClip
  * */
 public class ShtookaCollection extends RandomAccessFile {
 	
-	/** The offset data and voice clips of
-	 * this Shtooka Collection. */
-	protected ShtookaVoiceClip[] voiceClips;
+	/* The offset data and names of the voice
+	 * clips of this Shtooka Collection, kept off
+	 * the java heap in a direct or mapped buffer.
+	 * the voice clips are created from it when
+	 * requested. null while opening in the background */
+	private volatile ClipIndex index;
+	
+	//the names for approximate lookup, created when first used
+	private BkTree similarNames;
+	
+	//the names for segmenting text, created when first used
+	private NameAutomaton nameAutomaton;
+	
+	/* the attributes of the tags, created by a scan from
+	 * the same walk over index.xml as the names, else
+	 * created when first used */
+	private volatile TagStore tagStore;
+	
+	//the voice clips indexed so far, null if not opening in the background
+	private final PartialIndex partial;
+	
+	//completes when the voice clips are indexed
+	private final CompletableFuture<ShtookaCollection> indexed;
+	
+	//the .tar file, and its channel for positional reads
+	private final File file;
+	private final TarChannel channel;
+	
+	//the contents of the .tar file, inflated if gzip compressed
+	private final TarInput input;
+	
+	//statistics of the .tar file scan, null if not scanned
+	private volatile ShtookaScanStatistics scanStatistics;
 	
 	//true if closed
-	private boolean closed;
+	private volatile boolean closed;
+	
+	/* the decoders, streams and transfers reading the .tar
+	 * file, which is closed when the last of them ends */
+	private int readers;
+	private final Object readersLock = new Object();
 	
 	
 	//Constructors
@@ -57,8 +131,7 @@ public class ShtookaCollection extends RandomAccessFile {
 	 * @throws IOException if an I/O error occurs
 	 * */
 	public ShtookaCollection(String file) throws IOException {
-		super(file, "r");
-		init();
+		this(file, ShtookaIndexMode.SCAN);
 	}
 	
 	/** Opens random access file to the specified
@@ -67,8 +140,7 @@ public class ShtookaCollection extends RandomAccessFile {
 	 * @throws IOException if an I/O error occurs
 	 * */
 	public ShtookaCollection(File file) throws IOException {
-		super(file, "r");
-		init();
+		this(file, ShtookaIndexMode.SCAN);
 	}
 	
 	/** Opens random access file to the specified
@@ -80,9 +152,145 @@ public class ShtookaCollection extends RandomAccessFile {
 	 * be converted to a URI
 	 * */
 	public ShtookaCollection(URL file) throws IOException {
-		super(urlToFile(file), "r");
-		init();
+		this(file, ShtookaIndexMode.SCAN);
+	}
+	
+	/** Opens random access file to the specified
+	 * file and initializes a Shtooka Collection
+	 * with the specified index mode.
+	 * @param file the file of the Shtooka Collection
+	 * @param mode how the voice clips are indexed
+	 * @throws IOException if an I/O error occurs
+	 * @see ShtookaIndexMode
+	 * */
+	public ShtookaCollection(String file, ShtookaIndexMode mode) throws IOException {
+		this(new File(file), mode);
+	}
+	
+	/** Opens random access file to the specified
+	 * file and initializes a Shtooka Collection
+	 * with the specified index mode.
+	 * @param file the file of the Shtooka Collection
+	 * @param mode how the voice clips are indexed
+	 * @throws IOException if an I/O error occurs
+	 * @see ShtookaIndexMode
+	 * */
+	public ShtookaCollection(File file, ShtookaIndexMode mode) throws IOException {
+		super(file, "r");
+		this.file = file;
+		this.partial = null;
+		try {
+			this.channel = new TarChannel(file);
+		} catch (IOException | RuntimeException e) {
+			super.close();
+			throw e;
+		}
+		try {
+			this.input = tarInput();
+			init(mode, null);
+		} catch (IOException | RuntimeException e) {
+			closeFile();
+			throw e;
+		}
+		this.indexed = CompletableFuture.completedFuture(this);
+	}
+	
+	/** Opens random access file to the specified
+	 * file and initializes a Shtooka Collection
+	 * with the specified index mode.
+	 * @param file the file of the Shtooka Collection
+	 * @param mode how the voice clips are indexed
+	 * @throws IOException if an I/O error occurs
+	 * @throws RuntimeException if the specified URL is not
+	 * formatted strictly according to RFC2396 and cannot
+	 * be converted to a URI
+	 * @see ShtookaIndexMode
+	 * */
+	public ShtookaCollection(URL file, ShtookaIndexMode mode) throws IOException {
+		this(urlToFile(file), mode);
+	}
+	
+	//background opening constructor
+	private ShtookaCollection(File file, PartialIndex partial) throws IOException {
+		super(file, "r");
+		this.file = file;
+		this.partial = partial;
+		this.indexed = new CompletableFuture<>();
+		try {
+			this.channel = new TarChannel(file);
+		} catch (IOException | RuntimeException e) {
+			super.close();
+			throw e;
+		}
+		try {
+			this.input = tarInput();
+		} catch (IOException | RuntimeException e) {
+			closeFile();
+			throw e;
+		}
+	}
+	
+	/** Opens random access file to the specified
+	 * file and returns a Shtooka Collection right away,
+	 * indexing its voice clips in the background on a
+	 * new daemon thread.
+	 * @param file the file of the Shtooka Collection
+	 * @param mode how the voice clips are indexed
+	 * @return the Shtooka Collection
+	 * @throws IOException if an I/O error occurs
+	 * opening the file
+	 * @see #openAsync(File, ShtookaIndexMode, Executor)
+	 * */
+	public static ShtookaCollection openAsync(File file, ShtookaIndexMode mode)
+			throws IOException {
+		return openAsync(file, mode, command -> {
+			Thread thread = new Thread(command, "Shtooka Collection indexer");
+			thread.setDaemon(true);
+			thread.start();
+		});
+	}
+	
+	/** Opens random access file to the specified
+	 * file and returns a Shtooka Collection right away,
+	 * indexing its voice clips in the background on the
+	 * specified executor.
+	 * 
+	 * <p>Until the indexing is done,
+	 * {@link #getVoiceClip(String)} waits only until a
+	 * voice clip with the name has been indexed, or
+	 * until the indexing is done if there is none. The
+	 * other operations wait until the indexing is done.
+	 * {@link #whenIndexed()} completes when the indexing
+	 * is done.
+	 * @param file the file of the Shtooka Collection
+	 * @param mode how the voice clips are indexed
+	 * @param executor runs the indexing
+	 * @return the Shtooka Collection
+	 * @throws IOException if an I/O error occurs
+	 * opening the file
+	 * */
+	public static ShtookaCollection openAsync(
+			File file, ShtookaIndexMode mode, Executor executor)
+			throws IOException {
+		ShtookaCollection sc = new ShtookaCollection(file, new PartialIndex());
+		try {
+			executor.execute(() -> {
+				try {
+					sc.init(mode, sc.partial);
+					sc.partial.finish();
+					sc.indexed.complete(sc);
+				} catch (Throwable e) {
+					sc.partial.finish();
+					sc.indexed.completeExceptionally(e);
+				}
+			});
+		} catch (RuntimeException e) {
+			sc.close();
+			throw e;
+		}
+		return sc;
 	}
+	
 	private static File urlToFile(URL url) {
 		try {
 			return Paths.get(url.toURI()).toFile();
@@ -95,182 +303,185 @@ public class ShtookaCollection extends RandomAccessFile {
 	private static final class Node {//.tar entry read node
 		final String filename;
 		final long offset, size;
+		String[] names;//null until the tags are read
+		boolean added;//to the partial index
 		Node(String filename, long offset, long size) {
 			this.filename = filename;
 			this.offset = offset;
 			this.size = size;
 		}
 	}
-	//read all .tar file entries and obtain voice clip offsets
-	private final XBufferedInputStream xbis
-		= new XBufferedInputStream(
-			Channels.newInputStream(
-				getChannel()));
-	private final Reader reader = new InputStreamReader(xbis, StandardCharsets.UTF_8);
-	private void init() throws IOException {
-		List<Node> nodes = new ArrayList<>();
-		
-		//go to file start
-		seek(0);
-		xbis.resetBuffer();
-		
-		//tar entry header
-		byte[] b = new byte[135];
-		
-		//read .tar file
-		boolean tagsRead = false;
-		List<Tag> tags = new ArrayList<>();
-		while (true) {
-			//Read tar entry header
-			int bytesRead = read(b, 0, b.length);
-			if (bytesRead != b.length)
-				break;
-			
-			//Read tar entry filename
-			String filename = readName(b);
-			
-			//Read tar entry file size
-			int size = readSize(b);
-			
-			//Skip the rest of the header
-			skipBytes(377);
-			
-			/* Add offset data to the
-			 * result / read tags */
-			String lc = filename.toLowerCase();
-			long offset = getFilePointer();
-			if (lc.endsWith(".flac")) {
-				//add result
-				nodes.add(new Node(filename, offset, size));
-			} else if (!tagsRead && lc.equals("flac/index.xml")) {
-				//read tags from index.xml
-				readTags(tags, "flac/");
-				tagsRead = true;
-				seek(offset);
+	private TarInput tarInput() throws IOException {
+		return GzipTar.isGzip(channel) ? new GzipTar(file, channel) : channel;
+	}
+	private void init(ShtookaIndexMode mode, PartialIndex partial)
+			throws IOException {
+		ClipIndex index;
+		if (mode == ShtookaIndexMode.SCAN) {
+			index = scan(new TarScanner(input), partial, null);
+		} else {
+			//load the index file, or scan and rewrite it if stale
+			boolean mapped = mode == ShtookaIndexMode.MAPPED_INDEX_FILE;
+			File indexFile = IndexFile.of(file);
+			long tarLength = length();
+			long tarModified = file.lastModified();
+			long fingerprint = IndexFile.fingerprint(channel);
+			IndexFile stored = IndexFile.read(indexFile, mapped, fingerprint);
+			if (stored != null && stored.isCurrent(tarLength, tarModified)) {
+				index = stored.index;
+			} else {
+				//scan only the appended .tar entries if the rest is unchanged
+				TarScanner scanner = new TarScanner(input);
+				BufferClipIndex scanned = scan(scanner, partial,
+					stored != null && stored.isAppended(input) ? stored : null);
+				index = null;
+				try {
+					long lastHeader = scanner.lastHeader();
+					IndexFile.write(
+						indexFile, scanned, tarLength, tarModified, fingerprint,
+						scanner.end(), lastHeader,
+						lastHeader == -1 ? -1 : IndexFile.headerCrc(input, lastHeader));
+					if (mapped) {
+						IndexFile written = IndexFile.read(indexFile, true, fingerprint);
+						if (written != null)
+							index = written.index;
+					}
+				} catch (IOException e) {
+					//index file not writable, scan next time again
+				}
+				if (index == null)
+					index = scanned;
+			}
+		}
+		this.index = index;
+	}
+	/* read all .tar file entries and obtain voice clip offsets,
+	 * or only the entries appended since the index file */
+	private BufferClipIndex scan(
+			TarScanner scanner, PartialIndex partial, IndexFile appendedTo)
+			throws IOException {
+		Scan scan = new Scan(scanner, partial);
+		if (appendedTo == null) {
+			scanner.scan(scan);
+		} else {
+			//the voice clips of the index file, then the appended entries
+			ClipIndex old = appendedTo.index;
+			int count = old.count();
+			for (int i = 0; i < count; i++) {
+				Node node = new Node(old.filename(i), old.offset(i), old.size(i));
+				node.names = old.names(i);
+				scan.add(node);
+			}
+			scanner.scan(scan, appendedTo.scanEnd, appendedTo.lastHeader);
+			if (scan.tags == null) {
+				//no index.xml appended, name the appended voice clips
+				scan.readTags(old.tagsOffset(), old.tagsSize());
+				for (int i = count; i < scan.nodes.size(); i++)
+					scan.join(scan.nodes.get(i));
 			}
-			
-			//Skip file
-			skipBytes(size);
-			
-			//Go to next non-zero byte
-			long pos = getFilePointer();
-			long zeroes = 0;
-			xbis.resetBuffer();
-			while (xbis.read() == 0)
-				zeroes++;
-			seek(pos + zeroes);
 		}
+		scanStatistics = scanner.statistics();
 		
-		if (!tagsRead)
+		if (scan.tags == null)
 			throw new IllegalArgumentException(
 				"Failed to read tags: flac/index.xml file not found in .tar");
 		
-		//reset seek and buffer
-		seek(0);
-		xbis.resetBuffer();
-		
-		//create voice clips array
-		ShtookaVoiceClip[] arr = new ShtookaVoiceClip[nodes.size()];
-		List<String> names = new ArrayList<>();
-		for (int i = 0; i < arr.length; i++) {
-			names.clear();
+		//create clip index, strings pooled as UTF-8 bytes
+		List<Node> nodes = scan.nodes;
+		int count = nodes.size();
+		String[] filenames = new String[count];
+		long[] offsets = new long[count], sizes = new long[count];
+		String[][] namesArr = new String[count][];
+		for (int i = 0; i < count; i++) {
 			Node node = nodes.get(i);
-			//add voice clip name from tags
-			for (Tag tag: tags)
-				if (Util.stringsEqual(node.filename, tag.filename))
-					names.add(tag.swactext);
-			//names string array
-			String[] namesArr = new String[names.size()];
-			for (int j = 0; j < namesArr.length; j++)
-				namesArr[j] = names.get(j);
-			//put result voice clip
-			arr[i] = new ShtookaVoiceClip(
-				this, node.filename, node.offset, node.size, namesArr);
-		}
-		this.voiceClips = arr;
-	}
-	private String readName(byte[] b) throws IOException {
-		//reads a 100 char string (tar format)
-		int len = 100;
-		for (int i = 0; i < len; i++) {
-			if (b[i] == 0) {
-				len = i;
-				break;
-			}
+			filenames[i] = node.filename;
+			offsets[i] = node.offset;
+			sizes[i] = node.size;
+			namesArr[i] = node.names;
 		}
-		return new String(b, 0, len, StandardCharsets.UTF_8);
-	}
-	private int readSize(byte[] b) throws IOException {
-		//convert octal number (tar format)
-		int result = 0;
-		for (int i = b.length - 11, len = b.length; i < len; i++)
-			result = result * 8 - Character.digit((char)b[i], 8);
-		return -result;
+		BufferClipIndex index = new BufferClipIndex(
+			BufferClipIndex.encode(filenames, offsets, sizes, namesArr,
+				scan.tagsOffset, scan.tagsSize));
+		
+		//the attributes of the tags read with the names
+		tagStore = new TagStore(scan.tagFilenames, scan.tagAttributes, index);
+		return index;
 	}
-	private static final char[] FN_DELIM = "file path=\"".toCharArray();
-	private static final char[] TX_DELIM = "swac_text=\"".toCharArray();
-	private static final class Tag {//shtooka entry tag class
-		final String filename, swactext;
-		Tag(String filename, String swactext) {
-			this.filename = filename;
-			this.swactext = swactext;
+	private static final class Scan implements TarScanner.Visitor {
+		final TarScanner scanner;
+		final PartialIndex partial;//null if not opened in the background
+		final List<Node> nodes = new ArrayList<>();
+		Map<String, List<String>> tags;//null until index.xml is read
+		long tagsOffset, tagsSize;
+		//the filename and the attributes of each tag
+		List<String> tagFilenames;
+		List<String[]> tagAttributes;
+		Scan(TarScanner scanner, PartialIndex partial) {
+			this.scanner = scanner;
+			this.partial = partial;
 		}
-	}
-	private void readTags(List<Tag> tags, String filenamePrefix) throws IOException {
-		//parse the index.xml
-		xbis.resetBuffer();
-		
-		int level = 0;//the xml hierarchy level <>
-		
-		//read tags in index.xml
-		while (true) {
-			//skip the XML string filename delimiter
-			level = xmlReadUntil(FN_DELIM, level);
-			if (level == -1) //XML end of file cond
-				break;
-			//read the filename string
-			String filename = filenamePrefix + xmlReadStr(new StringBuilder(17));
-			
-			//skip the XML string swac text delimiter
-			level = xmlReadUntil(TX_DELIM, level);
-			if (level == -1) //XML end of file cond
-				break;
-			//read the swac text string
-			String swactext = xmlReadStr(new StringBuilder()).toLowerCase();
-			
-			//add tags to list
-			tags.add(new Tag(filename, swactext));
-		}
-	}
-	private int xmlReadUntil(char[] delim, int level) throws IOException {
-		/* skips bytes until the char array delimiter
-		 * is met, while updating the XML hierarchy level */
-		e: while (true) {
-			for (int c: delim) {
-				int r = reader.read();
-				if (r != c) {
-					if (r == '<') {
-						level++;
-					} else if (r == '>') {
-						if (level <= 0) //xml eof
-							return -1;
-						level--;
-					}
-					continue e;//delimiter not met
-				}
+		@Override
+		public void entry(String filename, long offset, long size)
+				throws IOException {
+			String lc = filename.toLowerCase();
+			if (lc.endsWith(".flac")) {
+				//add result
+				Node node = new Node(filename, offset, size);
+				nodes.add(node);
+				if (tags != null)
+					join(node);
+			} else if (lc.equals("flac/index.xml")) {
+				/* read tags from index.xml, then name the voice
+				 * clips. an index.xml appended later replaces it */
+				readTags(offset, size);
+				for (Node node: nodes)
+					join(node);
 			}
-			return level;//delimiter met
 		}
-	}
-	private String xmlReadStr(StringBuilder sb) throws IOException {
-		//reads a string to the stringbuilder from XML
-		while (true) {
-			int c = reader.read();
-			if (c == '\"')
-				break;
-			sb.appendCodePoint(c);
+		//adds a voice clip already named
+		void add(Node node) {
+			nodes.add(node);
+			added(node);
+		}
+		private void readTags(long offset, long size) throws IOException {
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("flac/index.xml too large");
+			Map<String, List<String>> tags = new HashMap<>();
+			List<String> tagFilenames = new ArrayList<>();
+			List<String[]> tagAttributes = new ArrayList<>();
+			IndexXmlParser.parse(
+				scanner.read(offset, (int)size), "flac/",
+				(filename, swactext, attributes) -> {
+					//add tag to the names of the filename
+					List<String> names = tags.get(filename);
+					if (names == null) {
+						names = new ArrayList<>(1);
+						tags.put(filename, names);
+					}
+					names.add(swactext.toLowerCase());
+					tagFilenames.add(filename);
+					tagAttributes.add(attributes);
+				});
+			this.tags = tags;
+			this.tagFilenames = tagFilenames;
+			this.tagAttributes = tagAttributes;
+			tagsOffset = offset;
+			tagsSize = size;
+		}
+		private void join(Node node) {
+			//voice clip names from tags
+			List<String> names = tags.get(node.filename);
+			node.names = names == null
+				? new String[0]
+				: names.toArray(new String[names.size()]);
+			added(node);
+		}
+		private void added(Node node) {
+			if (partial != null && !node.added) {
+				partial.add(node.filename, node.offset, node.size, node.names);
+				node.added = true;
+			}
 		}
-		return sb.toString();
 	}
 	
 	
@@ -278,16 +489,35 @@ public class ShtookaCollection extends RandomAccessFile {
 	/** Closes this Shtooka Collection to the
 	 * tar file. The operations of this
 	 * Shtooka Collection will no longer work
-	 * afterwards.
+	 * afterwards. Voice clips still being decoded,
+	 * streamed or transferred on other threads are
+	 * read to the end, and the tar file is closed
+	 * when the last of them ends.
 	 * @throws IOException if an I/O error occurs
 	 * */
 	@Override
 	public void close() throws IOException {
-		reader.close();
-		xbis.close();
-		super.close();
-		voiceClips = null;
-		closed = true;
+		boolean unread;
+		synchronized (readersLock) {
+			if (closed)
+				return;
+			closed = true;
+			unread = readers == 0;
+		}
+		index = null;
+		similarNames = null;
+		nameAutomaton = null;
+		tagStore = null;
+		if (unread)
+			closeFile();
+	}
+	//close the .tar file and its channel
+	private void closeFile() throws IOException {
+		try {
+			channel.close();
+		} finally {
+			super.close();
+		}
 	}
 	
 	/** Returns {@code true} if this Shtooka Collection
@@ -303,8 +533,85 @@ public class ShtookaCollection extends RandomAccessFile {
 	//Shtooka Collection closed check
 	void checkClosed() {
 		if (isClosed())
-			throw new UnsupportedOperationException(
-				"Shtooka Collection has been closed");
+			throw closedException();
+	}
+	private static UnsupportedOperationException closedException() {
+		return new UnsupportedOperationException(
+			"Shtooka Collection has been closed");
+	}
+	
+	//keep the .tar file open until released
+	private void acquire() {
+		synchronized (readersLock) {
+			checkClosed();
+			readers++;
+		}
+	}
+	private void release() throws IOException {
+		boolean unread;
+		synchronized (readersLock) {
+			unread = --readers == 0 && closed;
+		}
+		if (unread)
+			closeFile();
+	}
+	
+	/** Returns a future that completes with this
+	 * Shtooka Collection when its voice clips are
+	 * indexed, or completes exceptionally if the
+	 * indexing fails. It is already completed unless
+	 * this Shtooka Collection was opened with
+	 * {@link #openAsync(File, ShtookaIndexMode, Executor)}.
+	 * @return the indexing future */
+	public CompletableFuture<ShtookaCollection> whenIndexed() {
+		return indexed;
+	}
+	
+	/* wait until the voice clips are indexed. close() clears
+	 * the index without waiting for lookups, so the index is
+	 * read once and a lookup that finds it cleared has raced
+	 * with close() */
+	ClipIndex awaitIndex() {
+		ClipIndex index = this.index;
+		if (index != null)
+			return index;
+		try {
+			indexed.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw new UncheckedIOException((IOException)cause);
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			throw e;
+		}
+		index = this.index;
+		if (index == null)
+			throw closedException();
+		return index;
+	}
+	
+	//create the voice clip from the clip index
+	ShtookaVoiceClip voiceClip(int i) {
+		return voiceClip(awaitIndex(), i);
+	}
+	ShtookaVoiceClip voiceClip(ClipIndex index, int i) {
+		return new ShtookaVoiceClip(
+			this, index.filename(i), index.offset(i),
+			index.size(i), index.names(i));
+	}
+	
+	/** Returns the statistics of reading the .tar entry
+	 * headers when this Shtooka Collection was opened.
+	 * @return the scan statistics, or {@code null} if
+	 * the voice clips were loaded from an index file
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Collection has been closed
+	 * @see ShtookaIndexMode */
+	public ShtookaScanStatistics getScanStatistics() {
+		checkClosed();
+		awaitIndex();
+		return scanStatistics;
 	}
 	
 	/** Returns a new array of all of the
@@ -314,12 +621,30 @@ public class ShtookaCollection extends RandomAccessFile {
 	 * Shtooka Collection has been closed */
 	public ShtookaVoiceClip[] getVoiceClips() {
 		checkClosed();
-		ShtookaVoiceClip[] result = new ShtookaVoiceClip[voiceClips.length];
+		ClipIndex index = awaitIndex();
+		ShtookaVoiceClip[] result = new ShtookaVoiceClip[index.count()];
 		for (int i = 0; i < result.length; i++)
-			result[i] = voiceClips[i];
+			result[i] = voiceClip(index, i);
 		return result;
 	}
 	
+	/** Returns a stream of all of the Shtooka Voice
+	 * Clips of this collection in .tar order. Split for
+	 * a parallel stream, each part of the stream has the
+	 * voice clips of a contiguous region of the .tar
+	 * file, about the same number of bytes each, so that
+	 * each thread reads its own region of the .tar file
+	 * in order.
+	 * @return a stream of all voice clips
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Collection has been closed */
+	public Stream<ShtookaVoiceClip> clips() {
+		checkClosed();
+		ClipIndex index = awaitIndex();
+		return StreamSupport.stream(
+			new ClipSpliterator(this, index, 0, index.count()), false);
+	}
+	
 	/** Returns the number of Shtooka Voice Clips
 	 * in this Shtooka Collection.
 	 * @return the number of voice clips
@@ -327,7 +652,7 @@ public class ShtookaCollection extends RandomAccessFile {
 	 * Shtooka Collection has been closed */
 	public int getVoiceClipCount() {
 		checkClosed();
-		return voiceClips.length;
+		return awaitIndex().count();
 	}
 	
 	/** Returns a Shtooka Voice Clip from this
@@ -342,11 +667,66 @@ public class ShtookaCollection extends RandomAccessFile {
 	public ShtookaVoiceClip getVoiceClip(String name) {
 		checkClosed();
 		String namelc = name.toLowerCase();
-		for (ShtookaVoiceClip svc: voiceClips)
-			for (String s: svc.names)
-				if (Util.stringsEqual(namelc, s))
-					return svc;
-		return null;
+		if (index == null && partial != null) {
+			//opening in the background, wait for the name
+			ShtookaVoiceClip svc = partial.await(this, namelc);
+			if (svc != null)
+				return svc;
+		}
+		ClipIndex index = awaitIndex();
+		int[] indexes = index.find(namelc);
+		return indexes.length == 0 ? null : voiceClip(index, indexes[0]);
+	}
+	
+	/** Returns the Shtooka Voice Clip of this Shtooka
+	 * Collection by its .tar entry filename, such as
+	 * {@code flac/cmn-caen-tan-001.flac}.
+	 * @param filename the .tar entry filename
+	 * @return the voice clip of the .tar entry filename,
+	 * or {@code null} if none
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Collection has been closed
+	 * @see ShtookaVoiceClip#filename */
+	public ShtookaVoiceClip getVoiceClipByFilename(String filename) {
+		checkClosed();
+		ClipIndex index = awaitIndex();
+		int i = index.findFilename(filename);
+		return i == -1 ? null : voiceClip(index, i);
+	}
+	
+	/** Returns the Shtooka Voice Clip of this Shtooka
+	 * Collection by its id. The ids of the voice clips
+	 * are numbered from 0 to
+	 * {@link #getVoiceClipCount()} - 1 in .tar order,
+	 * and are the same each time the same .tar file
+	 * is opened.
+	 * @param id the voice clip id
+	 * @return the voice clip of the id
+	 * @throws IndexOutOfBoundsException if no voice clip
+	 * has the id
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Collection has been closed
+	 * @see #getVoiceClipId(ShtookaVoiceClip) */
+	public ShtookaVoiceClip getVoiceClipById(int id) {
+		checkClosed();
+		ClipIndex index = awaitIndex();
+		if (id < 0 || id >= index.count())
+			throw new IndexOutOfBoundsException("Bad voice clip id: " + id);
+		return voiceClip(index, id);
+	}
+	
+	/** Returns the id of a Shtooka Voice Clip of this
+	 * Shtooka Collection, its position in .tar order.
+	 * @param voiceClip the voice clip
+	 * @return the voice clip id
+	 * @throws IllegalArgumentException if the voice clip
+	 * is not a voice clip of this Shtooka Collection
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Collection has been closed
+	 * @see #getVoiceClipById(int) */
+	public int getVoiceClipId(ShtookaVoiceClip voiceClip) {
+		checkClosed();
+		return clipIndex(voiceClip);
 	}
 	
 	/** Returns the Shtooka Voice Clips from this
@@ -361,23 +741,311 @@ public class ShtookaCollection extends RandomAccessFile {
 	 * Shtooka Collection has been closed */
 	public ShtookaVoiceClip[] getVoiceClips(String name) {
 		checkClosed();
-		String namelc = name.toLowerCase();
+		int[] indexes = awaitIndex().find(name.toLowerCase());
+		ShtookaVoiceClip[] arr = new ShtookaVoiceClip[indexes.length];
+		for (int i = 0; i < arr.length; i++)
+			arr[i] = voiceClip(indexes[i]);
+		return arr;
+	}
+	
+	/** Returns the Shtooka Voice Clips from this
+	 * Shtooka Collection for each of the specified names,
+	 * as {@link #getVoiceClips(String)} does, in one call.
+	 * The map iterates in the order of the specified names.
+	 * @param names the voice clip names
+	 * @return a map from each distinct specified name to
+	 * an array of the voice clips with that name, which
+	 * is empty if none have that name
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Collection has been closed
+	 * @see #getVoiceClips(Collection, boolean) */
+	public Map<String, ShtookaVoiceClip[]> getVoiceClips(Collection<String> names) {
+		return getVoiceClips(names, false);
+	}
+	
+	/** Returns the Shtooka Voice Clips from this
+	 * Shtooka Collection for each of the specified names,
+	 * as {@link #getVoiceClips(String)} does, in one call.
+	 * If sorted by offset, the map iterates in .tar file
+	 * order of the first voice clip of each name, names
+	 * without voice clips last, so that the voice clips
+	 * can be read in sequential file order. Otherwise,
+	 * the map iterates in the order of the specified names.
+	 * @param names the voice clip names
+	 * @param sortByOffset whether to sort the map by offset
+	 * @return a map from each distinct specified name to
+	 * an array of the voice clips with that name, which
+	 * is empty if none have that name
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Collection has been closed */
+	public Map<String, ShtookaVoiceClip[]> getVoiceClips(
+			Collection<String> names, boolean sortByOffset) {
+		checkClosed();
+		ClipIndex index = awaitIndex();
+		
+		//find each name once
+		Map<String, int[]> found = new LinkedHashMap<>();
+		Map<String, int[]> byLowerCase = new HashMap<>();
+		for (String name: names) {
+			if (found.containsKey(name))
+				continue;
+			String namelc = name.toLowerCase();
+			int[] indexes = byLowerCase.get(namelc);
+			if (indexes == null) {
+				indexes = index.find(namelc);
+				byLowerCase.put(namelc, indexes);
+			}
+			found.put(name, indexes);
+		}
+		
+		//sort by the first voice clip, in .tar order
+		List<Map.Entry<String, int[]>> entries = new ArrayList<>(found.entrySet());
+		if (sortByOffset) {
+			entries.sort((e1, e2) -> Integer.compare(
+				e1.getValue().length == 0 ? Integer.MAX_VALUE : e1.getValue()[0],
+				e2.getValue().length == 0 ? Integer.MAX_VALUE : e2.getValue()[0]));
+		}
+		
+		//voice clips
+		Map<String, ShtookaVoiceClip[]> result = new LinkedHashMap<>();
+		for (Map.Entry<String, int[]> entry: entries) {
+			int[] indexes = entry.getValue();
+			ShtookaVoiceClip[] arr = new ShtookaVoiceClip[indexes.length];
+			for (int i = 0; i < arr.length; i++)
+				arr[i] = voiceClip(index, indexes[i]);
+			result.put(entry.getKey(), arr);
+		}
+		return result;
+	}
+	
+	/** Returns the Shtooka Voice Clips from this
+	 * Shtooka Collection that have a name starting
+	 * with the specified prefix, such as for
+	 * autocompletion. The voice clips are ordered by
+	 * their name, by Unicode code point, and appear once
+	 * each. Takes logarithmic time in the number of
+	 * names plus the number of results.
+	 * @param prefix the voice clip name prefix
+	 * @param limit the maximum number of voice clips
+	 * @return an array of at most {@code limit} voice
+	 * clips with a name starting with the specified
+	 * prefix, or an empty array if there are none
+	 * @throws IllegalArgumentException if the limit
+	 * is negative
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Collection has been closed */
+	public ShtookaVoiceClip[] findByPrefix(String prefix, int limit) {
+		checkClosed();
+		if (limit < 0)
+			throw new IllegalArgumentException("Negative limit: " + limit);
+		int[] indexes = awaitIndex().findByPrefix(prefix.toLowerCase(), limit);
+		ShtookaVoiceClip[] arr = new ShtookaVoiceClip[indexes.length];
+		for (int i = 0; i < arr.length; i++)
+			arr[i] = voiceClip(indexes[i]);
+		return arr;
+	}
+	
+	/** Returns the Shtooka Voice Clips from this
+	 * Shtooka Collection that have a name within the
+	 * specified edit distance (Levenshtein distance,
+	 * in chars) of the specified name, such as for
+	 * misspelled names. The voice clips are ordered by
+	 * the distance of their name, then by their name, by
+	 * Unicode code point, and appear once each. The names
+	 * are indexed in a BK-tree when this method is first
+	 * called.
+	 * @param name the voice clip name
+	 * @param maxDistance the maximum edit distance
+	 * @param limit the maximum number of voice clips
+	 * @return an array of at most {@code limit} voice
+	 * clips with a name within the edit distance, or
+	 * an empty array if there are none
+	 * @throws IllegalArgumentException if the maximum
+	 * distance or the limit is negative
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Collection has been closed */
+	public ShtookaVoiceClip[] findSimilar(String name, int maxDistance, int limit) {
+		checkClosed();
+		if (maxDistance < 0)
+			throw new IllegalArgumentException("Negative distance: " + maxDistance);
+		if (limit < 0)
+			throw new IllegalArgumentException("Negative limit: " + limit);
+		ClipIndex index = awaitIndex();
 		List<ShtookaVoiceClip> result = new ArrayList<>();
-		for (ShtookaVoiceClip svc: voiceClips) {
-			for (String s: svc.names) {
-				if (Util.stringsEqual(namelc, s)) {
-					result.add(svc);
-					continue;
-				}
+		Set<Integer> added = new HashSet<>();
+		for (String similar: similarNames().search(name.toLowerCase(), maxDistance)) {
+			for (int i: index.find(similar)) {
+				if (result.size() == limit)
+					return result.toArray(new ShtookaVoiceClip[limit]);
+				if (added.add(i))
+					result.add(voiceClip(index, i));
+			}
+		}
+		return result.toArray(new ShtookaVoiceClip[result.size()]);
+	}
+	private synchronized BkTree similarNames() {
+		BkTree similarNames = this.similarNames;
+		if (similarNames == null) {
+			//the distinct names
+			ClipIndex index = awaitIndex();
+			Set<String> names = new LinkedHashSet<>();
+			for (int i = 0, count = index.count(); i < count; i++)
+				for (String name: index.names(i))
+					names.add(name);
+			this.similarNames = similarNames =
+				new BkTree(names.toArray(new String[names.size()]));
+		}
+		return similarNames;
+	}
+	
+	/** Splits the specified text into the Shtooka Voice
+	 * Clips from this Shtooka Collection whose names
+	 * voice it, such as a sentence written without
+	 * spaces. The text is read left to right, taking
+	 * the longest name starting at each position and
+	 * skipping the characters (spaces, punctuation) that
+	 * start no name. The first voice clip having a name
+	 * is taken, as with {@link #getVoiceClip(String)}.
+	 * The names are indexed in an Aho-Corasick automaton
+	 * when this method is first called, and the text is
+	 * then searched in a single pass.
+	 * @param text the text to segment
+	 * @return an array of the voice clips of the names
+	 * in the text in order, or an empty array if no name
+	 * occurs in the text
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Collection has been closed */
+	public ShtookaVoiceClip[] segment(String text) {
+		checkClosed();
+		int[] indexes = nameAutomaton().segment(text.toLowerCase());
+		ShtookaVoiceClip[] arr = new ShtookaVoiceClip[indexes.length];
+		for (int i = 0; i < arr.length; i++)
+			arr[i] = voiceClip(indexes[i]);
+		return arr;
+	}
+	private synchronized NameAutomaton nameAutomaton() {
+		NameAutomaton nameAutomaton = this.nameAutomaton;
+		if (nameAutomaton == null) {
+			//the distinct names, with the first voice clip of each
+			ClipIndex index = awaitIndex();
+			Map<String, Integer> names = new LinkedHashMap<>();
+			for (int i = 0, count = index.count(); i < count; i++)
+				for (String name: index.names(i))
+					names.putIfAbsent(name, i);
+			String[] strings = new String[names.size()];
+			int[] clips = new int[names.size()];
+			int n = 0;
+			for (Map.Entry<String, Integer> e: names.entrySet()) {
+				strings[n] = e.getKey();
+				clips[n++] = e.getValue();
 			}
+			this.nameAutomaton = nameAutomaton = new NameAutomaton(strings, clips);
 		}
-		//list to array
-		ShtookaVoiceClip[] arr = new ShtookaVoiceClip[result.size()];
+		return nameAutomaton;
+	}
+	
+	/** Returns the Shtooka Voice Clips from this
+	 * Shtooka Collection having a tag with the specified
+	 * attribute value in the flac/index.xml file, such as
+	 * the voice clips of a speaker with the attribute
+	 * {@code swac_speak_name}. The value is compared
+	 * exactly, as it appears in the index.xml file. The
+	 * attributes of every tag are indexed when a tag
+	 * attribute method is first called.
+	 * @param attribute the tag attribute name
+	 * @param value the tag attribute value
+	 * @return an array of the voice clips having the
+	 * attribute value in .tar order, or an empty array
+	 * if there are none
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Collection has been closed
+	 * @throws UncheckedIOException if an I/O error
+	 * occurs reading the index.xml file
+	 * @see #getAttributeNames()
+	 * @see #getAttributeValues(String) */
+	public ShtookaVoiceClip[] filter(String attribute, String value) {
+		checkClosed();
+		int[] indexes = tagStore().filter(attribute, value);
+		ShtookaVoiceClip[] arr = new ShtookaVoiceClip[indexes.length];
 		for (int i = 0; i < arr.length; i++)
-			arr[i] = result.get(i);
+			arr[i] = voiceClip(indexes[i]);
 		return arr;
 	}
 	
+	/** Returns the names of the attributes of the tags
+	 * in the flac/index.xml file of this
+	 * Shtooka Collection, such as {@code swac_text}.
+	 * @return a new array of the attribute names
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Collection has been closed
+	 * @throws UncheckedIOException if an I/O error
+	 * occurs reading the index.xml file */
+	public String[] getAttributeNames() {
+		checkClosed();
+		return tagStore().attributes();
+	}
+	
+	/** Returns the distinct values of a tag attribute
+	 * in the flac/index.xml file of this
+	 * Shtooka Collection, such as every speaker name.
+	 * @param attribute the tag attribute name
+	 * @return a new array of the attribute values, or
+	 * an empty array if no tag has the attribute
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Collection has been closed
+	 * @throws UncheckedIOException if an I/O error
+	 * occurs reading the index.xml file */
+	public String[] getAttributeValues(String attribute) {
+		checkClosed();
+		return tagStore().values(attribute);
+	}
+	
+	/** Returns the values of a tag attribute of the
+	 * specified voice clip, one for each of its tags
+	 * having the attribute.
+	 * @param voiceClip the voice clip
+	 * @param attribute the tag attribute name
+	 * @return a new array of the attribute values, or
+	 * an empty array if no tag of the voice clip has
+	 * the attribute
+	 * @throws IllegalArgumentException if the voice clip
+	 * is not a voice clip of this Shtooka Collection
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Collection has been closed
+	 * @throws UncheckedIOException if an I/O error
+	 * occurs reading the index.xml file */
+	public String[] getAttributeValues(ShtookaVoiceClip voiceClip, String attribute) {
+		checkClosed();
+		return tagStore().values(clipIndex(voiceClip), attribute);
+	}
+	private synchronized TagStore tagStore() {
+		ClipIndex index = awaitIndex();
+		TagStore tagStore = this.tagStore;
+		if (tagStore == null) {
+			if (index.tagsSize() > Integer.MAX_VALUE)
+				throw new UncheckedIOException(
+					new IOException("flac/index.xml too large"));
+			try {
+				byte[] xml = new TarScanner(input)
+					.read(index.tagsOffset(), (int)index.tagsSize());
+				this.tagStore = tagStore = TagStore.parse(xml, index);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return tagStore;
+	}
+	//the index of the voice clip, by its filename
+	private int clipIndex(ShtookaVoiceClip voiceClip) {
+		if (voiceClip.owner != this)
+			throw new IllegalArgumentException("Bad voice clip owner");
+		ClipIndex index = awaitIndex();
+		int i = index.findFilename(voiceClip.filename);
+		if (i == -1 || index.offset(i) != voiceClip.offset)
+			throw new IllegalArgumentException("Bad voice clip: " + voiceClip.filename);
+		return i;
+	}
+	
 	/** Plays the audio from this Shtooka Collection of
 	 * the specified voice clip to the system audio output.
 	 * @param voiceClip the voice clip audio to play
@@ -416,26 +1084,17 @@ public class ShtookaCollection extends RandomAccessFile {
 				"Audio from this Shtooka Collection is already"
 				+ " currently playing on a separate thread.");
 		playing.set(true);
-		
-		//play flac audio
-		/* Code for FLAC decoder is obtained from:
-		 * FLAC library (Java)
-		 * 
-		 * Copyright (c) Project Nayuki
-		 * https://www.nayuki.io/page/flac-library-java
-		 * */
-		
-		/*-- Initialization code --*/
-		//(custom constructor)
-		FlacDecoder decoder = new FlacDecoder(this, svc.offset, svc.size);
-		
-		// Process header metadata blocks
-		while (decoder.readAndHandleMetadataBlock() != null);
-		StreamInfo streamInfo = decoder.streamInfo;
-		if (streamInfo.numSamples == 0) {
-			decoder.close();
-			throw new IllegalArgumentException("Unknown audio length");
+		try (FlacDecoder decoder = flacDecoder(svc)) {
+			playFlac(decoder);
+		} finally {
+			synchronized (playing) {
+				playing.set(false);
+			}
 		}
+	}
+	private void playFlac(FlacDecoder decoder)
+			throws IOException, LineUnavailableException {
+		StreamInfo streamInfo = decoder.streamInfo;
 		
 		// Start Java sound output API
 		AudioFormat format = new AudioFormat(
@@ -444,46 +1103,313 @@ public class ShtookaCollection extends RandomAccessFile {
 		Info info = new Info(SourceDataLine.class, format);
 		SourceDataLine line = (SourceDataLine)AudioSystem.getLine(info);
 		line.open(format);
-		line.start();
+		try {
+			line.start();
 			
-		/*-- Audio play loop --*/
-		/* Decode and write audio data, handle seek requests,
-		 * wait for seek when end of stream reached */
-		int bytesPerSample = streamInfo.sampleDepth / 8;
+			/*-- Audio play loop --*/
+			/* Decode and write audio data, handle seek requests,
+			 * wait for seek when end of stream reached */
+			int bytesPerSample = streamInfo.sampleDepth / 8;
 			
-		/* Buffers for data created and discarded within each
-		 * loop iteration, but allocated outside the loop */
-		int[][] samples = new int[streamInfo.numChannels][65536];
-		byte[] sampleBytes = new byte[
-			65536 * streamInfo.numChannels * bytesPerSample];
-
-		while (true) {
+			/* Buffers for data created and discarded within each
+			 * loop iteration, but allocated outside the loop */
+			int[][] samples = new int[streamInfo.numChannels][65536];
+			byte[] sampleBytes = new byte[
+				65536 * streamInfo.numChannels * bytesPerSample];
+			
+			while (true) {
 				
-			// Decode next audio block
-			int blockSamples = decoder.readAudioBlock(samples, 0);
+				// Decode next audio block
+				int blockSamples = decoder.readAudioBlock(samples, 0);
 				
-			/* Convert samples to channel-interleaved bytes
-			 * in little endian */
-			int sampleBytesLen = 0;
-			for (int i = 0; i < blockSamples; i++) {
-				for (int ch = 0; ch < streamInfo.numChannels; ch++) {
-					int val = samples[ch][i];
-					for (int j = 0; j < bytesPerSample; j++, sampleBytesLen++)
-						sampleBytes[sampleBytesLen] = (byte)(val >>> (j << 3));
+				/* Convert samples to channel-interleaved bytes
+				 * in little endian */
+				int sampleBytesLen = 0;
+				for (int i = 0; i < blockSamples; i++) {
+					for (int ch = 0; ch < streamInfo.numChannels; ch++) {
+						int val = samples[ch][i];
+						for (int j = 0; j < bytesPerSample; j++, sampleBytesLen++)
+							sampleBytes[sampleBytesLen] = (byte)(val >>> (j << 3));
+					}
 				}
-			}
-			line.write(sampleBytes, 0, sampleBytesLen);
+				line.write(sampleBytes, 0, sampleBytesLen);
 				
-			// End after audio finished playing
-			if (line.available() == line.getBufferSize())
-				break;
+				// End after audio finished playing
+				if (line.available() == line.getBufferSize())
+					break;
+			}
+		} finally {
+			line.close();
 		}
+	}
+	
+	//the decoder of the voice clip, with the metadata blocks read
+	private FlacDecoder flacDecoder(ShtookaVoiceClip svc) throws IOException {
+		//play flac audio
+		/* Code for FLAC decoder is obtained from:
+		 * FLAC library (Java)
+		 * 
+		 * Copyright (c) Project Nayuki
+		 * https://www.nayuki.io/page/flac-library-java
+		 * */
 		
-		decoder.close();
+		/*-- Initialization code --*/
+		//(custom constructor)
+		FlacDecoder decoder;
+		if (input instanceof GzipTar) {
+			//inflate the voice clip from the nearest checkpoint
+			if (svc.size > Integer.MAX_VALUE)
+				throw new IOException("Voice clip too large");
+			byte[] flac;
+			acquire();
+			try {
+				flac = new TarScanner(input).read(svc.offset, (int)svc.size);
+			} finally {
+				release();
+			}
+			decoder = new FlacDecoder(new ByteArrayFlacInput(flac));
+		} else if (svc.size <= wholeReadLimit) {
+			//one positional read of the whole voice clip
+			decoder = new FlacDecoder(wholeRead(svc));
+		} else {
+			//positional reads, released when the decoder is closed
+			acquire();
+			FlacLowLevelInput flacInput = new TarFlacInput(
+					channel, svc.offset, svc.size) {
+				private boolean released;
+				@Override
+				public void close() throws IOException {
+					super.close();
+					if (!released) {
+						released = true;
+						release();
+					}
+				}
+			};
+			try {
+				decoder = new FlacDecoder(flacInput);
+			} catch (IOException | RuntimeException e) {
+				flacInput.close();
+				throw e;
+			}
+		}
 		
-		//
-		synchronized (playing) {
-			playing.set(false);
+		// Process header metadata blocks
+		try {
+			while (decoder.readAndHandleMetadataBlock() != null);
+			if (decoder.streamInfo.numSamples == 0)
+				throw new IllegalArgumentException("Unknown audio length");
+		} catch (IOException | RuntimeException e) {
+			decoder.close();
+			throw e;
+		}
+		return decoder;
+	}
+	
+	/** Writes the FLAC file of the specified voice clip,
+	 * its .tar entry bytes, to the channel. From an
+	 * uncompressed .tar file the bytes are transferred
+	 * with {@link FileChannel#transferTo(long, long,
+	 * WritableByteChannel)}, which the operating system
+	 * may copy to a socket or file without passing them
+	 * through the JVM; from a gzip compressed .tar file
+	 * they are inflated and written a buffer at a time.
+	 * The channel should be in blocking mode.
+	 * @param voiceClip the voice clip to write
+	 * @param target the channel to write to
+	 * @return the number of bytes written, the size of
+	 * the voice clip
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Collection has been closed
+	 * @throws IllegalArgumentException if the owner
+	 * Shtooka Collection of the specified voice clip
+	 * is not this Shtooka Collection
+	 * @throws IOException if an I/O error occurs */
+	public long transferVoiceClip(ShtookaVoiceClip voiceClip, WritableByteChannel target)
+			throws IOException {
+		checkClosed();
+		if (voiceClip.owner != this)
+			throw new IllegalArgumentException("Bad voice clip owner");
+		acquire();
+		try {
+			transfer(voiceClip.offset, voiceClip.offset + voiceClip.size, target);
+		} finally {
+			release();
+		}
+		return voiceClip.size;
+	}
+	private void transfer(long pos, long end, WritableByteChannel target)
+			throws IOException {
+		if (input instanceof GzipTar) {
+			ByteBuffer bb = ByteBuffer.allocate((int)Math.min(end - pos, 1 << 16));
+			while (pos < end) {
+				bb.clear().limit((int)Math.min(bb.capacity(), end - pos));
+				int n = input.read(bb, pos);
+				if (n == -1)
+					throw new EOFException("Unexpected end of .tar file");
+				pos += n;
+				bb.flip();
+				while (bb.hasRemaining())
+					target.write(bb);
+			}
+		} else {
+			while (pos < end) {
+				long n = channel.transferTo(pos, end - pos, target);
+				if (n == 0 && pos >= channel.size())
+					throw new EOFException("Unexpected end of .tar file");
+				pos += n;
+			}
+		}
+	}
+	
+	/** Opens a stream of the audio from this Shtooka
+	 * Collection of the specified voice clip as a .wav
+	 * file (PCM samples, signed little endian). The
+	 * audio is decoded one FLAC block at a time as the
+	 * stream is read, so the first bytes are available
+	 * after decoding one block. The stream should be
+	 * closed.
+	 * @param voiceClip the voice clip audio to stream
+	 * @return the .wav file input stream
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Collection has been closed
+	 * @throws IllegalArgumentException if the owner
+	 * Shtooka Collection of the specified voice clip
+	 * is not this Shtooka Collection
+	 * @throws IOException if an I/O error occurs
+	 * @throws RuntimeException if an error occurs
+	 * decoding FLAC audio */
+	public InputStream openWavStream(ShtookaVoiceClip voiceClip) throws IOException {
+		checkClosed();
+		if (voiceClip.owner != this)
+			throw new IllegalArgumentException("Bad voice clip owner");
+		FlacDecoder decoder = flacDecoder(voiceClip);
+		try {
+			return new WavInputStream(decoder);
+		} catch (IOException | RuntimeException e) {
+			decoder.close();
+			throw e;
+		}
+	}
+	
+	/** Sets the size up to which the FLAC file of a
+	 * voice clip of an uncompressed .tar file is read
+	 * whole, with one read into a reused buffer, when
+	 * it is decoded, played or streamed. Larger voice
+	 * clips are read as they are decoded. The default
+	 * is 65536 bytes, which most Shtooka voice clips
+	 * are within; 0 reads every voice clip as it is
+	 * decoded.
+	 * @param bytes the largest voice clip size to read
+	 * whole, in bytes
+	 * @throws IllegalArgumentException if the size
+	 * is negative
+	 * @see #getWholeReadLimit() */
+	public void setWholeReadLimit(int bytes) {
+		if (bytes < 0)
+			throw new IllegalArgumentException("Negative size: " + bytes);
+		wholeReadLimit = bytes;
+		readBuffers.clear();
+	}
+	
+	/** Returns the size up to which the FLAC file of a
+	 * voice clip is read whole when it is decoded.
+	 * @return the largest voice clip size read whole,
+	 * in bytes
+	 * @see #setWholeReadLimit(int) */
+	public int getWholeReadLimit() {
+		return wholeReadLimit;
+	}
+	
+	private volatile int wholeReadLimit = 1 << 16;
+	
+	//read buffers of the whole read limit, reused by the decoders
+	private final Queue<byte[]> readBuffers = new ConcurrentLinkedQueue<>();
+	private static final int READ_BUFFERS
+		= 2 * Runtime.getRuntime().availableProcessors();
+	
+	//the voice clip read whole into a read buffer
+	private FlacLowLevelInput wholeRead(ShtookaVoiceClip svc) throws IOException {
+		byte[] buf = readBuffer((int)svc.size);
+		ByteBuffer bb = ByteBuffer.wrap(buf, 0, (int)svc.size);
+		acquire();
+		try {
+			while (bb.hasRemaining())
+				if (channel.read(bb, svc.offset + bb.position()) == -1)
+					throw new EOFException("Unexpected end of .tar file");
+		} catch (IOException | RuntimeException e) {
+			recycle(buf);
+			throw e;
+		} finally {
+			release();
+		}
+		return new ByteArrayFlacInput(buf, (int)svc.size) {
+			private boolean recycled;
+			@Override
+			public void close() throws IOException {
+				super.close();
+				if (!recycled) {
+					recycled = true;
+					recycle(buf);
+				}
+			}
+		};
+	}
+	private byte[] readBuffer(int size) {
+		byte[] buf = readBuffers.poll();
+		return buf != null && buf.length >= size
+			? buf : new byte[Math.max(wholeReadLimit, size)];
+	}
+	private void recycle(byte[] buf) {
+		if (buf.length == wholeReadLimit && readBuffers.size() < READ_BUFFERS)
+			readBuffers.offer(buf);
+	}
+	
+	/** Decodes the audio from this Shtooka Collection of
+	 * the specified voice clip to PCM samples, without
+	 * the system audio output. The samples are decoded
+	 * into an array of the length of the audio.
+	 * @param voiceClip the voice clip audio to decode
+	 * @return the decoded audio
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Collection has been closed
+	 * @throws IllegalArgumentException if the owner
+	 * Shtooka Collection of the specified voice clip
+	 * is not this Shtooka Collection
+	 * @throws IOException if an I/O error occurs
+	 * @throws RuntimeException if an error occurs
+	 * decoding FLAC audio */
+	public ShtookaPcmAudio decodeVoiceClip(ShtookaVoiceClip voiceClip) throws IOException {
+		checkClosed();
+		if (voiceClip.owner != this)
+			throw new IllegalArgumentException("Bad voice clip owner");
+		try (FlacDecoder decoder = flacDecoder(voiceClip)) {
+			StreamInfo streamInfo = decoder.streamInfo;
+			int numChannels = streamInfo.numChannels;
+			int bytesPerSample = (streamInfo.sampleDepth + 7) / 8;
+			long length = streamInfo.numSamples * numChannels * bytesPerSample;
+			if (length > Integer.MAX_VALUE)
+				throw new IOException("Voice clip audio too long");
+			byte[] data = new byte[(int)length];
+			
+			//decode block by block, interleaved into the data
+			int[][] samples = new int[numChannels][streamInfo.maxBlockSize];
+			int pos = 0;
+			while (true) {
+				int blockSamples = decoder.readAudioBlock(samples, 0);
+				if (blockSamples == 0)
+					break;
+				if (pos + (long)blockSamples * numChannels * bytesPerSample > data.length)
+					throw new DataFormatException("Audio longer than its stream info");
+				pos = ShtookaPcmAudio.interleave(
+					samples, blockSamples, numChannels,
+					streamInfo.sampleDepth, data, pos);
+			}
+			if (pos != data.length)
+				throw new DataFormatException("Audio shorter than its stream info");
+			return new ShtookaPcmAudio(
+				streamInfo.sampleRate, numChannels, streamInfo.sampleDepth,
+				(int)streamInfo.numSamples, data);
 		}
 	}
 }
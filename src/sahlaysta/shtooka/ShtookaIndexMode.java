@@ -0,0 +1,36 @@
+package sahlaysta.shtooka;
+
+/**
+ * The ways a {@link ShtookaCollection} obtains the
+ * offset data and names of its voice clips when
+ * it is opened.
+ * 
+ * @author sahlaysta
+ * @see ShtookaCollection#ShtookaCollection(java.io.File, ShtookaIndexMode)
+ * */
+public enum ShtookaIndexMode {
+	
+	/** Reads every .tar entry header and the
+	 * flac/index.xml file of the .tar file each
+	 * time the Shtooka Collection is opened. */
+	SCAN,
+	
+	/** Loads the offset data and names from the
+	 * index file next to the .tar file (the .tar
+	 * filename followed by {@code .shtidx}). If the
+	 * index file does not exist or no longer matches
+	 * the .tar file, the .tar file is read as with
+	 * {@link #SCAN} and the index file is rewritten. */
+	INDEX_FILE,
+	
+	/** Same as {@link #INDEX_FILE}, but the index
+	 * file is memory-mapped and looked up in place
+	 * instead of being read into memory. Opening
+	 * takes about the same time at any collection
+	 * size, and Shtooka Collections of the same .tar
+	 * file, even in separate processes, share one
+	 * copy of the index file in the system file cache.
+	 * Voice clips are created when they are requested. */
+	MAPPED_INDEX_FILE
+	
+}
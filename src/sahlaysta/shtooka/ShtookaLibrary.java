@@ -0,0 +1,276 @@
+package sahlaysta.shtooka;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A library of the Shtooka Collections of the
+ * .tar files (or gzip compressed .tar.gz and
+ * .tgz files) in a directory, such as one per
+ * language, with one voice clip lookup across
+ * all of them by language and name.
+ * 
+ * <p>The language of a Shtooka Collection is the
+ * start of its .tar filename up to the first
+ * {@code '-'}, as in Shtooka's downloads: the
+ * language of {@code cmn-caen-tan_flac.tar} is
+ * {@code cmn}. Several Shtooka Collections may
+ * have the same language.
+ * 
+ * <p>Should be closed with the {@link #close()}
+ * method, which closes every Shtooka Collection
+ * of this library.
+ * 
+ * @author sahlaysta
+ * @see ShtookaCollection
+ * */
+public class ShtookaLibrary implements Closeable {
+	
+	//the collections in .tar filename order
+	private final ShtookaCollection[] collections;
+	private final String[] languages;
+	
+	/* maps each language to the names of its collections,
+	 * merged into one hash table off the java heap */
+	private final Map<String, LibraryIndex> index = new HashMap<>();
+	
+	//true if closed
+	private boolean closed;
+	
+	
+	//Constructors
+	/** Opens the Shtooka Collections of the .tar files
+	 * in the specified directory in parallel, one per
+	 * available processor at a time.
+	 * @param directory the directory of the .tar files
+	 * @throws IOException if an I/O error occurs
+	 * */
+	public ShtookaLibrary(File directory) throws IOException {
+		this(directory, ShtookaIndexMode.SCAN,
+			Runtime.getRuntime().availableProcessors());
+	}
+	
+	/** Opens the Shtooka Collections of the .tar files
+	 * in the specified directory in parallel, with the
+	 * specified index mode and at most the specified
+	 * number at a time.
+	 * @param directory the directory of the .tar files
+	 * @param mode how the voice clips are indexed
+	 * @param threads the maximum number of Shtooka
+	 * Collections opened at a time
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalArgumentException if the number
+	 * of threads is not positive
+	 * @see ShtookaIndexMode
+	 * */
+	public ShtookaLibrary(File directory, ShtookaIndexMode mode, int threads)
+			throws IOException {
+		if (threads <= 0)
+			throw new IllegalArgumentException("Bad thread count: " + threads);
+		File[] files = directory.listFiles(
+			f -> f.isFile() && extension(f.getName().toLowerCase()) != null);
+		if (files == null)
+			throw new IOException("Cannot list directory: " + directory);
+		Arrays.sort(files);
+		collections = new ShtookaCollection[files.length];
+		languages = new String[files.length];
+		
+		//open each collection in parallel
+		Map<String, int[]> languageCollections = new HashMap<>();
+		ClipIndex[] indexes = new ClipIndex[files.length];
+		List<Future<?>> futures = new ArrayList<>();
+		ExecutorService pool = Executors.newFixedThreadPool(
+			Math.max(1, Math.min(threads, files.length)));
+		try {
+			for (int i = 0; i < files.length; i++) {
+				int c = i;
+				futures.add(pool.submit(() -> {
+					collections[c] = new ShtookaCollection(files[c], mode);
+					indexes[c] = collections[c].awaitIndex();
+					return null;
+				}));
+			}
+			
+			//the collections of each language, in order
+			for (int c = 0; c < files.length; c++) {
+				futures.get(c).get();
+				languages[c] = language(files[c]);
+				int[] langCollections = languageCollections.get(languages[c]);
+				langCollections = langCollections == null
+					? new int[] { c }
+					: Util.append(langCollections, c);
+				languageCollections.put(languages[c], langCollections);
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			//let the other collections open, then close them
+			pool.shutdown();
+			for (Future<?> future: futures) {
+				try {
+					future.get();
+				} catch (InterruptedException | ExecutionException e2) {
+					//ignore
+				}
+			}
+			closeCollections();
+			if (e instanceof InterruptedException)
+				Thread.currentThread().interrupt();
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException)cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			throw new IOException(e);
+		} finally {
+			pool.shutdown();
+		}
+		
+		//merge the names of the collections of each language
+		try {
+			for (Map.Entry<String, int[]> entry: languageCollections.entrySet())
+				index.put(entry.getKey(), new LibraryIndex(indexes, entry.getValue()));
+		} catch (IOException | RuntimeException e) {
+			closeCollections();
+			throw e;
+		}
+	}
+	private static String language(File file) {
+		String name = file.getName().toLowerCase();
+		int i = name.indexOf('-');
+		return i == -1
+			? name.substring(0, name.length() - extension(name).length())
+			: name.substring(0, i);
+	}
+	//the collection file extension of the filename, null if none
+	private static String extension(String name) {
+		for (String ext: new String[] { ".tar", ".tar.gz", ".tgz" })
+			if (name.endsWith(ext))
+				return ext;
+		return null;
+	}
+	
+	
+	//Public operations
+	/** Closes every Shtooka Collection of this
+	 * Shtooka Library. The operations of this
+	 * Shtooka Library will no longer work
+	 * afterwards.
+	 * @throws IOException if an I/O error occurs
+	 * */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		index.clear();
+		closeCollections();
+	}
+	private void closeCollections() throws IOException {
+		IOException exception = null;
+		for (ShtookaCollection sc: collections) {
+			try {
+				if (sc != null)
+					sc.close();
+			} catch (IOException e) {
+				exception = e;
+			}
+		}
+		if (exception != null)
+			throw exception;
+	}
+	
+	/** Returns {@code true} if this Shtooka Library
+	 * has been closed.
+	 * @return {@code true} if this Shtooka Library
+	 * has been closed
+	 * @see #close() */
+	public boolean isClosed() {
+		return closed;
+	}
+	
+	//Shtooka Library closed check
+	private void checkClosed() {
+		if (isClosed())
+			throw new UnsupportedOperationException(
+				"Shtooka Library has been closed");
+	}
+	
+	/** Returns a new array of the Shtooka Collections
+	 * of this Shtooka Library, in .tar filename order.
+	 * @return a new array of the Shtooka Collections
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Library has been closed */
+	public ShtookaCollection[] getCollections() {
+		checkClosed();
+		return collections.clone();
+	}
+	
+	/** Returns the language of the specified Shtooka
+	 * Collection of this Shtooka Library.
+	 * @param collection the Shtooka Collection
+	 * @return the language of the Shtooka Collection
+	 * @throws IllegalArgumentException if the Shtooka
+	 * Collection is not of this Shtooka Library
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Library has been closed */
+	public String getLanguage(ShtookaCollection collection) {
+		checkClosed();
+		for (int i = 0; i < collections.length; i++)
+			if (collections[i] == collection)
+				return languages[i];
+		throw new IllegalArgumentException("Bad Shtooka Collection");
+	}
+	
+	/** Returns a Shtooka Voice Clip of the specified
+	 * language by its name, from any Shtooka Collection
+	 * of this Shtooka Library with that language.
+	 * @param language the language, such as {@code cmn}
+	 * @param name the voice clip name
+	 * @return a voice clip with the specified language
+	 * and name, or {@code null} if none
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Library has been closed */
+	public ShtookaVoiceClip getVoiceClip(String language, String name) {
+		long[] clips = find(language, name);
+		return clips.length == 0 ? null : voiceClip(clips[0]);
+	}
+	
+	/** Returns the Shtooka Voice Clips of the specified
+	 * language that have the specified name, from every
+	 * Shtooka Collection of this Shtooka Library with that
+	 * language, in .tar filename order and then in .tar
+	 * order.
+	 * @param language the language, such as {@code cmn}
+	 * @param name the voice clip name
+	 * @return an array of voice clips with the specified
+	 * language and name, or an empty array if none
+	 * @throws UnsupportedOperationException if this
+	 * Shtooka Library has been closed */
+	public ShtookaVoiceClip[] getVoiceClips(String language, String name) {
+		long[] clips = find(language, name);
+		ShtookaVoiceClip[] arr = new ShtookaVoiceClip[clips.length];
+		for (int i = 0; i < arr.length; i++)
+			arr[i] = voiceClip(clips[i]);
+		return arr;
+	}
+	
+	private long[] find(String language, String name) {
+		checkClosed();
+		LibraryIndex langIndex = index.get(language.toLowerCase());
+		return langIndex == null ? NO_CLIPS : langIndex.find(name.toLowerCase());
+	}
+	private static final long[] NO_CLIPS = new long[0];
+	private ShtookaVoiceClip voiceClip(long clip) {
+		ShtookaCollection sc = collections[(int)(clip >>> 32)];
+		sc.checkClosed();
+		return sc.voiceClip((int)clip);
+	}
+	
+}
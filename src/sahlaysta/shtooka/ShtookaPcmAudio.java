@@ -0,0 +1,105 @@
+package sahlaysta.shtooka;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * The decoded PCM audio of a Shtooka Voice Clip:
+ * signed little endian samples, interleaved by
+ * channel, in a byte array of exactly the length
+ * of the audio.
+ * 
+ * <p>Each sample takes {@link #bytesPerSample} bytes.
+ * Samples of a FLAC sample depth that is not a
+ * multiple of 8 bits are shifted to the high bits.
+ * 
+ * @author sahlaysta
+ * @see ShtookaVoiceClip#decode()
+ * */
+public final class ShtookaPcmAudio {
+	
+	/** The sample rate in hertz. */
+	public final int sampleRate;
+	
+	/** The number of channels. */
+	public final int numChannels;
+	
+	/** The sample depth of the FLAC audio in bits. */
+	public final int sampleDepth;
+	
+	/** The number of bytes of each sample of a channel. */
+	public final int bytesPerSample;
+	
+	/** The number of samples of each channel. */
+	public final int numSamples;
+	
+	/** The samples, interleaved by channel, signed
+	 * little endian of {@link #bytesPerSample} bytes. */
+	public final byte[] data;
+	
+	ShtookaPcmAudio(
+			int sampleRate, int numChannels, int sampleDepth,
+			int numSamples, byte[] data) {
+		this.sampleRate = sampleRate;
+		this.numChannels = numChannels;
+		this.sampleDepth = sampleDepth;
+		this.bytesPerSample = (sampleDepth + 7) / 8;
+		this.numSamples = numSamples;
+		this.data = data;
+	}
+	
+	/** Returns the audio format of the samples, such as
+	 * to write them to a {@code SourceDataLine}.
+	 * @return the audio format of the samples */
+	public AudioFormat getAudioFormat() {
+		return new AudioFormat(
+			sampleRate, bytesPerSample * 8, numChannels, true, false);
+	}
+	
+	/** Returns the length of the audio in seconds.
+	 * @return the audio length in seconds */
+	public double seconds() {
+		return (double)numSamples / sampleRate;
+	}
+	
+	/** Returns the sample of a channel as a 16-bit value,
+	 * the high 16 bits of the sample.
+	 * @param sample the sample index
+	 * @param channel the channel index
+	 * @return the 16-bit sample value
+	 * @throws IndexOutOfBoundsException if the sample
+	 * or the channel index is out of range */
+	public short getShort(int sample, int channel) {
+		if (sample < 0 || sample >= numSamples || channel < 0 || channel >= numChannels)
+			throw new IndexOutOfBoundsException(sample + ", " + channel);
+		int pos = ((sample * numChannels) + channel + 1) * bytesPerSample;
+		int hi = data[pos - 1];
+		return bytesPerSample == 1
+			? (short)(hi << 8)
+			: (short)((hi << 8) | (data[pos - 2] & 0xFF));
+	}
+	
+	/* writes decoded samples to the data interleaved by
+	 * channel, returns the data position after them */
+	static int interleave(
+			int[][] samples, int count, int numChannels,
+			int sampleDepth, byte[] data, int pos) {
+		int bytesPerSample = (sampleDepth + 7) / 8;
+		int shift = bytesPerSample * 8 - sampleDepth;
+		for (int i = 0; i < count; i++) {
+			for (int ch = 0; ch < numChannels; ch++) {
+				int val = samples[ch][i] << shift;
+				for (int j = 0; j < bytesPerSample; j++)
+					data[pos++] = (byte)(val >>> (j << 3));
+			}
+		}
+		return pos;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format(
+			"%d Hz, %d channels, %d bits, %d samples (%.2f s)",
+			sampleRate, numChannels, sampleDepth, numSamples, seconds());
+	}
+	
+}
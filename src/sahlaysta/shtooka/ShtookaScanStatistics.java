@@ -0,0 +1,49 @@
+package sahlaysta.shtooka;
+
+/**
+ * Statistics of the scan of the .tar entry headers
+ * of a Shtooka Collection when it was opened.
+ * 
+ * @author sahlaysta
+ * @see ShtookaCollection#getScanStatistics()
+ * */
+public final class ShtookaScanStatistics {
+	
+	/** The number of .tar entries scanned. */
+	public final int entries;
+	
+	/** The number of .tar file bytes walked over. */
+	public final long bytes;
+	
+	/** The scan time in nanoseconds. */
+	public final long nanos;
+	
+	ShtookaScanStatistics(int entries, long bytes, long nanos) {
+		this.entries = entries;
+		this.bytes = bytes;
+		this.nanos = nanos;
+	}
+	
+	/** Returns the scan throughput in megabytes
+	 * (10<sup>6</sup> bytes) of .tar file per second.
+	 * @return the megabytes per second */
+	public double megabytesPerSecond() {
+		return nanos == 0 ? 0 : bytes * 1e3 / nanos;
+	}
+	
+	/** Returns the scan throughput in .tar
+	 * entries per second.
+	 * @return the entries per second */
+	public double entriesPerSecond() {
+		return nanos == 0 ? 0 : entries * 1e9 / nanos;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format(
+			"%d entries, %d bytes in %.1f ms (%.1f MB/s, %.0f entries/s)",
+			entries, bytes, nanos / 1e6,
+			megabytesPerSecond(), entriesPerSecond());
+	}
+	
+}
@@ -1,6 +1,9 @@
 package sahlaysta.shtooka;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
 
 /**
  * A single playable Shtooka voice clip
@@ -76,5 +79,84 @@ public class ShtookaVoiceClip {
 	public void play() throws IOException {
 		owner.playVoiceClip(this);
 	}
+	
+	/** Decodes the audio of this Shtooka Voice Clip to
+	 * PCM samples, without the system audio output.
+	 * @return the decoded audio
+	 * @throws UnsupportedOperationException if the owner
+	 * Shtooka Collection of this Shtooka Voice Clip has
+	 * been closed
+	 * @throws IOException if an I/O error occurs
+	 * @throws RuntimeException if an error occurs
+	 * decoding FLAC audio
+	 * @see ShtookaCollection#decodeVoiceClip(ShtookaVoiceClip)
+	 * */
+	public ShtookaPcmAudio decode() throws IOException {
+		return owner.decodeVoiceClip(this);
+	}
+	
+	/** Opens a stream of the audio of this Shtooka Voice
+	 * Clip as a .wav file, decoded as it is read.
+	 * @return the .wav file input stream
+	 * @throws UnsupportedOperationException if the owner
+	 * Shtooka Collection of this Shtooka Voice Clip has
+	 * been closed
+	 * @throws IOException if an I/O error occurs
+	 * @throws RuntimeException if an error occurs
+	 * decoding FLAC audio
+	 * @see ShtookaCollection#openWavStream(ShtookaVoiceClip)
+	 * */
+	public InputStream openWavStream() throws IOException {
+		return owner.openWavStream(this);
+	}
+	
+	/** Writes the FLAC file of this Shtooka Voice Clip,
+	 * its .tar entry bytes, to the channel, without
+	 * copying them through the JVM when the operating
+	 * system allows it.
+	 * @param target the channel to write to
+	 * @return the number of bytes written
+	 * @throws UnsupportedOperationException if the owner
+	 * Shtooka Collection of this Shtooka Voice Clip has
+	 * been closed
+	 * @throws IOException if an I/O error occurs
+	 * @see ShtookaCollection#transferVoiceClip(ShtookaVoiceClip, WritableByteChannel)
+	 * */
+	public long transferTo(WritableByteChannel target) throws IOException {
+		return owner.transferVoiceClip(this, target);
+	}
+	
+	/** Returns {@code true} if the object is a Shtooka
+	 * Voice Clip of the same owner Shtooka Collection
+	 * and of the same .tar entry, the same offset and
+	 * filename. The voice clips of a Shtooka Collection
+	 * are created when requested, so the same voice clip
+	 * may be requested as separate objects that are
+	 * equal: compare voice clips with this method rather
+	 * than with {@code ==}.
+	 * @param obj the object to compare with
+	 * @return {@code true} if the object is an equal
+	 * voice clip */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof ShtookaVoiceClip))
+			return false;
+		ShtookaVoiceClip svc = (ShtookaVoiceClip)obj;
+		return owner == svc.owner
+			&& offset == svc.offset
+			&& Objects.equals(filename, svc.filename);
+	}
+	
+	/** Returns the hash code of the owner Shtooka
+	 * Collection and the .tar entry (offset and filename)
+	 * of this voice clip.
+	 * @return the hash code of this voice clip */
+	@Override
+	public int hashCode() {
+		return Objects.hash(
+			System.identityHashCode(owner), offset, filename);
+	}
 
 }
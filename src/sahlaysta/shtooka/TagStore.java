@@ -0,0 +1,169 @@
+package sahlaysta.shtooka;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/* every attribute of the tags of the flac/index.xml file
+ * of a shtooka collection (swac_text, swac_speak_name,
+ * swac_speak_gender...) in dictionary-encoded columns.
+ * the tags are rows ordered by voice clip, each attribute
+ * is a column of value codes, and each value has a
+ * posting list of the voice clips having it */
+final class TagStore {
+	
+	private static final int[] NO_CLIPS = new int[0];
+	private static final String[] NO_VALUES = new String[0];
+	
+	//the first tag row of each voice clip, and one more
+	private final int[] clipRows;
+	
+	//the columns by attribute name, in index.xml order
+	private final Map<String, Column> columns;
+	
+	private static final class Column {
+		String[] dictionary = new String[16];//values by code
+		int size;
+		Map<String, Integer> codes = new HashMap<>();
+		int[] rows;//value code per tag row, -1 if absent
+		int[][] postings;//sorted voice clips per value code
+	}
+	
+	//parses the tags of the index.xml file of the voice clips
+	static TagStore parse(byte[] xml, ClipIndex index) throws IOException {
+		List<String> filenames = new ArrayList<>();
+		List<String[]> attributes = new ArrayList<>();
+		IndexXmlParser.parse(xml, "flac/", (filename, swactext, tagAttributes) -> {
+			filenames.add(filename);
+			attributes.add(tagAttributes);
+		});
+		return new TagStore(filenames, attributes, index);
+	}
+	
+	/* the filename and the attributes of each tag, as read
+	 * by IndexXmlParser, and the voice clips they tag */
+	TagStore(List<String> tagFilenames, List<String[]> tagAttributes, ClipIndex index) {
+		int count = index.count();
+		Map<String, Integer> clips = new HashMap<>(count * 2);
+		for (int i = 0; i < count; i++)
+			clips.put(index.filename(i), i);
+		
+		//the tags of the voice clips
+		List<String[]> tags = new ArrayList<>();
+		List<Integer> tagClips = new ArrayList<>();
+		for (int t = 0; t < tagFilenames.size(); t++) {
+			Integer clip = clips.get(tagFilenames.get(t));
+			if (clip != null) {
+				tags.add(tagAttributes.get(t));
+				tagClips.add(clip);
+			}
+		}
+		
+		//order the tag rows by voice clip (counting sort)
+		clipRows = new int[count + 1];
+		for (int clip: tagClips)
+			clipRows[clip + 1]++;
+		for (int i = 0; i < count; i++)
+			clipRows[i + 1] += clipRows[i];
+		int rowCount = tags.size();
+		int[] next = Arrays.copyOf(clipRows, count);
+		int[] tagRows = new int[rowCount];
+		for (int t = 0; t < rowCount; t++)
+			tagRows[t] = next[tagClips.get(t)]++;
+		
+		//dictionary-encode the columns
+		columns = new LinkedHashMap<>();
+		for (int t = 0; t < rowCount; t++) {
+			String[] attributes = tags.get(t);
+			for (int a = 0; a + 1 < attributes.length; a += 2) {
+				Column column = columns.get(attributes[a]);
+				if (column == null) {
+					column = new Column();
+					column.rows = new int[rowCount];
+					Arrays.fill(column.rows, -1);
+					columns.put(attributes[a], column);
+				}
+				String value = attributes[a + 1];
+				Integer code = column.codes.get(value);
+				if (code == null) {
+					code = column.size;
+					if (code == column.dictionary.length)
+						column.dictionary = Arrays.copyOf(column.dictionary, code * 2);
+					column.dictionary[column.size++] = value;
+					column.codes.put(value, code);
+				}
+				column.rows[tagRows[t]] = code;
+			}
+		}
+		
+		//the posting lists, voice clips in order and once each
+		for (Column column: columns.values()) {
+			column.dictionary = Arrays.copyOf(column.dictionary, column.size);
+			int[] lengths = new int[column.size];
+			int[] last = new int[column.size];
+			Arrays.fill(last, -1);
+			for (int clip = 0; clip < count; clip++) {
+				for (int row = clipRows[clip]; row < clipRows[clip + 1]; row++) {
+					int code = column.rows[row];
+					if (code != -1 && last[code] != clip) {
+						last[code] = clip;
+						lengths[code]++;
+					}
+				}
+			}
+			column.postings = new int[column.size][];
+			for (int code = 0; code < column.size; code++) {
+				column.postings[code] = new int[lengths[code]];
+				lengths[code] = 0;
+			}
+			Arrays.fill(last, -1);
+			for (int clip = 0; clip < count; clip++) {
+				for (int row = clipRows[clip]; row < clipRows[clip + 1]; row++) {
+					int code = column.rows[row];
+					if (code != -1 && last[code] != clip) {
+						last[code] = clip;
+						column.postings[code][lengths[code]++] = clip;
+					}
+				}
+			}
+		}
+	}
+	
+	//the attribute names, in index.xml order
+	String[] attributes() {
+		return columns.keySet().toArray(new String[columns.size()]);
+	}
+	
+	//the distinct values of the attribute, in index.xml order
+	String[] values(String attribute) {
+		Column column = columns.get(attribute);
+		return column == null ? NO_VALUES : column.dictionary.clone();
+	}
+	
+	//the values of the attribute in the tags of the voice clip
+	String[] values(int clip, String attribute) {
+		Column column = columns.get(attribute);
+		if (column == null)
+			return NO_VALUES;
+		String[] result = new String[clipRows[clip + 1] - clipRows[clip]];
+		int len = 0;
+		for (int row = clipRows[clip]; row < clipRows[clip + 1]; row++)
+			if (column.rows[row] != -1)
+				result[len++] = column.dictionary[column.rows[row]];
+		return Arrays.copyOf(result, len);
+	}
+	
+	//the voice clips having the attribute value, in .tar order
+	int[] filter(String attribute, String value) {
+		Column column = columns.get(attribute);
+		if (column == null)
+			return NO_CLIPS;
+		Integer code = column.codes.get(value);
+		return code == null ? NO_CLIPS : column.postings[code].clone();
+	}
+	
+}
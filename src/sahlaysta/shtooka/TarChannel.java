@@ -0,0 +1,106 @@
+package sahlaysta.shtooka;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/* positional reads of a .tar file from any thread. a file
+ * channel is closed when a thread reading it is interrupted,
+ * so the channel is its own (not that of the random access
+ * file) and is reopened when that happens. reads are not
+ * interruptible, like random access file reads: the thread
+ * keeps its interrupt status and the read is retried */
+final class TarChannel implements TarInput, Closeable {
+	
+	private final File file;
+	private volatile FileChannel fc;
+	private volatile boolean closed;
+	
+	TarChannel(File file) throws IOException {
+		this.file = file;
+		this.fc = FileChannel.open(file.toPath());
+	}
+	
+	@Override
+	public int read(ByteBuffer dst, long pos) throws IOException {
+		/* an interrupted read may have read into the buffer
+		 * before it threw, the retry reads on after those bytes */
+		int start = dst.position();
+		int n = uninterruptibly(fc -> fc.read(dst, pos + dst.position() - start));
+		int read = dst.position() - start;
+		return read > 0 ? read : n;
+	}
+	
+	//the size of the .tar file
+	long size() throws IOException {
+		return uninterruptibly(FileChannel::size);
+	}
+	
+	private interface Op<T> {
+		T run(FileChannel fc) throws IOException;
+	}
+	private <T> T uninterruptibly(Op<T> op) throws IOException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				FileChannel fc = this.fc;
+				try {
+					return op.run(fc);
+				} catch (ClosedByInterruptException e) {
+					//retry with the interrupt status cleared
+					Thread.interrupted();
+					interrupted = true;
+					reopen(fc, e);
+				} catch (ClosedChannelException e) {
+					//closed by an interrupt of another thread
+					reopen(fc, e);
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+	
+	/* transfers bytes to the target from the .tar position,
+	 * returns the number of bytes transferred. an interrupted
+	 * transfer throws, as the bytes the target received
+	 * are unknown, but the channel is reopened for the others */
+	long transferTo(long pos, long count, WritableByteChannel target)
+			throws IOException {
+		while (true) {
+			FileChannel fc = this.fc;
+			try {
+				return fc.transferTo(pos, count, target);
+			} catch (ClosedByInterruptException e) {
+				reopen(fc, e);
+				throw e;
+			} catch (ClosedChannelException e) {
+				reopen(fc, e);
+			}
+		}
+	}
+	
+	/* replace the channel unless another thread already has,
+	 * or rethrow if it is not the channel that was closed
+	 * (such as the target of a transfer) or this is closed */
+	private synchronized void reopen(FileChannel closedChannel,
+			ClosedChannelException e) throws IOException {
+		if (closed || closedChannel.isOpen())
+			throw e;
+		if (fc == closedChannel)
+			fc = FileChannel.open(file.toPath());
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		closed = true;
+		fc.close();
+	}
+	
+}
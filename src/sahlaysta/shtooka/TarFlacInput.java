@@ -0,0 +1,57 @@
+package sahlaysta.shtooka;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import io.nayuki.flac.decode.AbstractFlacLowLevelInput;
+
+/* the flac file of a voice clip, a range of the .tar file,
+ * read with positional reads. each input keeps its own
+ * position, so several inputs can read the same .tar
+ * file from separate threads at the same time */
+class TarFlacInput extends AbstractFlacLowLevelInput {
+	
+	private TarInput input;//null when closed
+	private final long offset, length;
+	private long position;//in the range, of the next read
+	
+	TarFlacInput(TarInput input, long offset, long length) {
+		this.input = input;
+		this.offset = offset;
+		this.length = length;
+	}
+	
+	@Override
+	public long getLength() {
+		return length;
+	}
+	
+	@Override
+	public void seekTo(long pos) throws IOException {
+		position = pos;
+		positionChanged(pos);
+	}
+	
+	@Override
+	protected int readUnderlying(byte[] buf, int off, int len) throws IOException {
+		if (off < 0 || off > buf.length || len < 0 || len > buf.length - off)
+			throw new ArrayIndexOutOfBoundsException();
+		long n = Math.min(length - position, len);
+		if (n <= 0)
+			return -1;
+		int read = input.read(ByteBuffer.wrap(buf, off, (int)n), offset + position);
+		if (read > 0)
+			position += read;
+		return read;
+	}
+	
+	//the .tar file is not closed, it is owned by the collection
+	@Override
+	public void close() throws IOException {
+		if (input != null) {
+			input = null;
+			super.close();
+		}
+	}
+	
+}
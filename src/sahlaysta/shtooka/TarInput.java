@@ -0,0 +1,15 @@
+package sahlaysta.shtooka;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/* positional reads of the contents of a .tar file, the
+ * .tar file itself (a TarChannel) or a gzip
+ * compressed .tar file inflated by a GzipTar */
+interface TarInput {
+	
+	/* reads bytes into the buffer from the .tar position,
+	 * returns the number of bytes read or -1 at the end */
+	int read(ByteBuffer dst, long pos) throws IOException;
+	
+}
@@ -0,0 +1,258 @@
+package sahlaysta.shtooka;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/* walks the entry headers of a .tar file by 512-byte
+ * block arithmetic with positional reads, reading only
+ * the header blocks and never the entry contents
+ * (unless the .tar file is gzip compressed).
+ * 
+ * besides the ustar format (with the 155 byte name
+ * prefix), understands GNU base-256 sizes, GNU long
+ * names (L, K entries), and pax extended headers
+ * (x, g entries) with their path and size */
+final class TarScanner {
+	
+	//called for each .tar entry
+	interface Visitor {
+		void entry(String filename, long offset, long size) throws IOException;
+	}
+	
+	private static final int BLOCK = 512;
+	
+	//the largest L, K, x or g entry read
+	private static final int MAX_META = 1 << 20;
+	
+	private final TarInput input;
+	private final ByteBuffer header = ByteBuffer.allocateDirect(BLOCK);
+	private final byte[] name = new byte[155];
+	
+	//statistics of the last scan
+	private int entries;
+	private long bytes, nanos;
+	
+	//the header block of the last entry, and the end of its contents
+	private long lastHeader, end;
+	
+	TarScanner(TarInput input) {
+		this.input = input;
+	}
+	
+	//visits every .tar entry in .tar order
+	void scan(Visitor visitor) throws IOException {
+		scan(visitor, 0, -1);
+	}
+	
+	/* visits the .tar entries from the position, the end
+	 * of the contents of an entry whose header block
+	 * is at lastHeader (-1 if none) */
+	void scan(Visitor visitor, long from, long lastHeader) throws IOException {
+		long start = System.nanoTime();
+		long pos = from;
+		entries = 0;
+		this.lastHeader = lastHeader;
+		this.end = from;
+		String longName = null;//L entry for the next entry
+		Map<String, String> pax = new HashMap<>(), globalPax = new HashMap<>();
+		while (true) {
+			//read the header block, until the .tar file ends
+			header.clear();
+			int n = read(header, pos);
+			if (n < BLOCK) {
+				bytes = pos + n - from;
+				break;
+			}
+			header.flip();
+			
+			//skip zero blocks (end of archive or padding)
+			if (isZero(header)) {
+				pos += BLOCK;
+				continue;
+			}
+			
+			long size = readSize(header);
+			long offset = pos + BLOCK;
+			this.lastHeader = pos;
+			switch (header.get(156)) {
+			case 'L'://GNU long name of the next entry
+				longName = readString(readMeta(offset, size));
+				break;
+			case 'K'://GNU long link name of the next entry
+				break;
+			case 'x'://pax headers of the next entry
+				readPax(readMeta(offset, size), pax);
+				break;
+			case 'g'://pax headers of every next entry
+				readPax(readMeta(offset, size), globalPax);
+				break;
+			default:
+				//visit the entry, the pax headers override the header block
+				String filename = pax.containsKey("path") ? pax.get("path")
+					: longName != null ? longName
+					: globalPax.containsKey("path") ? globalPax.get("path")
+					: readName(header);
+				String paxSize = pax.containsKey("size") ? pax.get("size")
+					: globalPax.get("size");
+				if (paxSize != null)
+					size = parsePaxSize(paxSize);
+				visitor.entry(filename, offset, size);
+				entries++;
+				longName = null;
+				pax.clear();
+			}
+			
+			//go to the next header block
+			pos = offset + ((size + BLOCK - 1) & -BLOCK);
+			end = pos;
+		}
+		nanos = System.nanoTime() - start;
+	}
+	
+	//reads the contents of a .tar entry
+	byte[] read(long offset, int size) throws IOException {
+		byte[] b = new byte[size];
+		if (read(ByteBuffer.wrap(b), offset) < size)
+			throw new EOFException("Unexpected end of .tar file");
+		return b;
+	}
+	
+	//the header block position of the last entry, -1 if none
+	long lastHeader() {
+		return lastHeader;
+	}
+	
+	//the position after the contents of the last entry
+	long end() {
+		return end;
+	}
+	
+	//statistics of the last scan
+	ShtookaScanStatistics statistics() {
+		return new ShtookaScanStatistics(entries, bytes, nanos);
+	}
+	
+	//reads until the buffer is full or the end, returns the bytes read
+	private int read(ByteBuffer bb, long pos) throws IOException {
+		int start = bb.position();
+		while (bb.hasRemaining()) {
+			int n = input.read(bb, pos + bb.position() - start);
+			if (n == -1)
+				break;
+		}
+		return bb.position() - start;
+	}
+	
+	private static boolean isZero(ByteBuffer bb) {
+		for (int i = 0; i < BLOCK; i += 8)
+			if (bb.getLong(i) != 0)
+				return false;
+		return true;
+	}
+	
+	private String readName(ByteBuffer bb) {
+		//reads a 100 char string, after the ustar prefix if any (tar format)
+		String name = readField(bb, 0, 100);
+		if (bb.get(257) == 'u' && bb.get(258) == 's' && bb.get(259) == 't'
+				&& bb.get(260) == 'a' && bb.get(261) == 'r') {
+			String prefix = readField(bb, 345, 155);
+			if (!prefix.isEmpty())
+				name = prefix + "/" + name;
+		}
+		return name;
+	}
+	private String readField(ByteBuffer bb, int off, int maxLen) {
+		int len = 0;
+		while (len < maxLen && (name[len] = bb.get(off + len)) != 0)
+			len++;
+		return new String(name, 0, len, StandardCharsets.UTF_8);
+	}
+	
+	private static long readSize(ByteBuffer bb) throws IOException {
+		//GNU base-256 number, the high bit set
+		int b0 = bb.get(124);
+		if ((b0 & 0x80) != 0) {
+			if ((b0 & 0x40) != 0)
+				throw new IOException("Negative .tar entry size");
+			long result = b0 & 0x3F;
+			for (int i = 125; i < 136; i++) {
+				if (result >>> 55 != 0)
+					throw new IOException(".tar entry size too large");
+				result = result << 8 | (bb.get(i) & 0xFF);
+			}
+			return result;
+		}
+		
+		//convert octal number (tar format)
+		long result = 0;
+		int i = 124;
+		while (i < 136 && (bb.get(i) == ' ' || bb.get(i) == 0))
+			i++;
+		for (; i < 136; i++) {
+			int digit = Character.digit((char)bb.get(i), 8);
+			if (digit == -1)
+				break;
+			result = result * 8 + digit;
+		}
+		return result;
+	}
+	
+	
+	//Extended headers
+	private byte[] readMeta(long offset, long size) throws IOException {
+		if (size > MAX_META)
+			throw new IOException(".tar extended header too large");
+		return read(offset, (int)size);
+	}
+	
+	//the NUL-terminated string of an L entry
+	private static String readString(byte[] b) {
+		int len = 0;
+		while (len < b.length && b[len] != 0)
+			len++;
+		return new String(b, 0, len, StandardCharsets.UTF_8);
+	}
+	
+	/* reads the "length key=value\n" records of a pax
+	 * entry, the length counts the whole record */
+	private static void readPax(byte[] b, Map<String, String> pax)
+			throws IOException {
+		int pos = 0;
+		while (pos < b.length && b[pos] != 0) {
+			int len = 0, i = pos;
+			while (i < b.length && b[i] >= '0' && b[i] <= '9')
+				len = len * 10 + (b[i++] - '0');
+			int end = pos + len;
+			if (i == pos || i >= b.length || b[i] != ' '
+					|| end <= i || end > b.length || b[end - 1] != '\n')
+				throw new IOException("Bad .tar pax header");
+			int eq = i + 1;
+			while (eq < end && b[eq] != '=')
+				eq++;
+			if (eq == end)
+				throw new IOException("Bad .tar pax header");
+			String key = new String(b, i + 1, eq - i - 1, StandardCharsets.UTF_8);
+			String value = new String(b, eq + 1, end - eq - 2, StandardCharsets.UTF_8);
+			if (value.isEmpty())
+				pax.remove(key);//deletes a global value
+			else
+				pax.put(key, value);
+			pos = end;
+		}
+	}
+	private static long parsePaxSize(String size) throws IOException {
+		try {
+			long result = Long.parseLong(size);
+			if (result >= 0)
+				return result;
+		} catch (NumberFormatException e) {
+			//bad size
+		}
+		throw new IOException("Bad .tar pax size: " + size);
+	}
+	
+}
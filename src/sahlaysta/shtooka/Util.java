@@ -1,16 +1,62 @@
 package sahlaysta.shtooka;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
 //lazy private util class
 final class Util {
 	
-	//test equal strings for both hashcode and content
-	static boolean stringsEqual(String s1, String s2) {
-		return
-			s1 == s2
-				? true
-				: s1 == null || s2 == null
-					? false
-					: s1.hashCode() == s2.hashCode() && s1.equals(s2);
+	//compare strings by code point, the same order as their UTF-8 bytes
+	static int compareCodePoints(String s1, String s2) {
+		for (int i = 0, len = Math.min(s1.length(), s2.length()); i < len; i++) {
+			char c1 = s1.charAt(i), c2 = s2.charAt(i);
+			if (c1 != c2) {
+				//surrogate pairs are above the other chars
+				boolean sp1 = Character.isSurrogate(c1);
+				if (sp1 != Character.isSurrogate(c2))
+					return sp1 ? 1 : -1;
+				return c1 - c2;
+			}
+		}
+		return s1.length() - s2.length();
+	}
+	
+	//a copy of the array with the value appended
+	static int[] append(int[] arr, int value) {
+		int[] result = Arrays.copyOf(arr, arr.length + 1);
+		result[arr.length] = value;
+		return result;
+	}
+	
+	/* creates an empty temporary file next to the file to
+	 * write it through, named uniquely so that processes
+	 * writing the same file do not write into each other's
+	 * temporary file. it has the default permissions of a
+	 * new file, so the file keeps them once moved over */
+	static Path createTempFile(File file) throws IOException {
+		while (true) {
+			Path temp = Paths.get(file.getPath() + "."
+				+ Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+			try {
+				return Files.createFile(temp);
+			} catch (FileAlreadyExistsException e) {
+				//taken, try another name
+			}
+		}
+	}
+	
+	//test if the first len values of the array contain the value
+	static boolean contains(int[] arr, int len, int value) {
+		for (int i = 0; i < len; i++)
+			if (arr[i] == value)
+				return true;
+		return false;
 	}
 	
 }
\ No newline at end of file
@@ -0,0 +1,141 @@
+package sahlaysta.shtooka;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import io.nayuki.flac.common.StreamInfo;
+import io.nayuki.flac.decode.FlacDecoder;
+
+/* the audio of a voice clip as a .wav file, the riff
+ * header from the stream info and then the samples,
+ * decoded one flac block at a time as they are read.
+ * more than 2 channels or a sample depth that is not a
+ * multiple of 8 need a wave_format_extensible header,
+ * giving the valid bits of the (left justified) samples
+ * and the speakers of the channels */
+final class WavInputStream extends InputStream {
+	
+	private static final int HEADER = 44, EXTENSIBLE_HEADER = 68;
+	
+	//the speakers of the channels in flac channel order, by channel count
+	private static final int[] CHANNEL_MASKS = {
+		0, 0x4, 0x3, 0x7, 0x33, 0x37, 0x3F, 0x70F, 0x63F
+	};
+	
+	//ksdataformat_subtype_pcm
+	private static final byte[] PCM_SUBFORMAT = {
+		0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x10, 0x00,
+		(byte)0x80, 0x00, 0x00, (byte)0xAA, 0x00, 0x38, (byte)0x9B, 0x71
+	};
+	
+	private FlacDecoder decoder;//null when closed
+	private final int numChannels, sampleDepth;
+	private final long dataLength;
+	private long decoded;//data bytes decoded so far
+	
+	//the header or the decoded block, and the read position in it
+	private final int[][] samples;
+	private final byte[] buf;
+	private int pos, len;
+	
+	//the decoder with the metadata blocks read
+	WavInputStream(FlacDecoder decoder) throws IOException {
+		this.decoder = decoder;
+		StreamInfo streamInfo = decoder.streamInfo;
+		numChannels = streamInfo.numChannels;
+		sampleDepth = streamInfo.sampleDepth;
+		int bytesPerSample = (sampleDepth + 7) / 8;
+		int blockAlign = numChannels * bytesPerSample;
+		dataLength = streamInfo.numSamples * blockAlign;
+		boolean extensible = numChannels > 2 || sampleDepth % 8 != 0;
+		int header = extensible ? EXTENSIBLE_HEADER : HEADER;
+		if (header - 8 + dataLength > 0xFFFFFFFFL)
+			throw new IOException("Voice clip audio too long for .wav");
+		samples = new int[numChannels][streamInfo.maxBlockSize];
+		buf = new byte[Math.max(header, streamInfo.maxBlockSize * blockAlign)];
+		
+		//riff header
+		len = 0;
+		ascii("RIFF");
+		le(header - 8 + dataLength, 4);
+		ascii("WAVEfmt ");
+		le(extensible ? 40 : 16, 4);
+		le(extensible ? 0xFFFE : 1, 2);//wave_format_extensible or pcm
+		le(numChannels, 2);
+		le(streamInfo.sampleRate, 4);
+		le((long)streamInfo.sampleRate * blockAlign, 4);
+		le(blockAlign, 2);
+		le(bytesPerSample * 8, 2);
+		if (extensible) {
+			le(22, 2);
+			le(sampleDepth, 2);//valid bits
+			le(CHANNEL_MASKS[numChannels], 4);
+			for (byte b: PCM_SUBFORMAT)
+				buf[len++] = b;
+		}
+		ascii("data");
+		le(dataLength, 4);
+	}
+	private void ascii(String s) {
+		for (int i = 0; i < s.length(); i++)
+			buf[len++] = (byte)s.charAt(i);
+	}
+	private void le(long val, int n) {
+		for (int i = 0; i < n; i++)
+			buf[len++] = (byte)(val >>> (i << 3));
+	}
+	
+	//decode the next block, false at the end of the audio
+	private boolean fill() throws IOException {
+		if (decoder == null)
+			throw new IOException("Stream closed");
+		if (decoded == dataLength)
+			return false;
+		int blockSamples = decoder.readAudioBlock(samples, 0);
+		if (blockSamples == 0)
+			throw new IOException("Audio shorter than its stream info");
+		len = ShtookaPcmAudio.interleave(
+			samples, blockSamples, numChannels, sampleDepth, buf, 0);
+		pos = 0;
+		decoded += len;
+		if (decoded > dataLength)
+			throw new IOException("Audio longer than its stream info");
+		return true;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		if (pos == len && !fill())
+			return -1;
+		return buf[pos++] & 0xFF;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int n) throws IOException {
+		if (off < 0 || n < 0 || n > b.length - off)
+			throw new IndexOutOfBoundsException();
+		if (n == 0)
+			return 0;
+		if (pos == len && !fill())
+			return -1;
+		n = Math.min(n, len - pos);
+		System.arraycopy(buf, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+	
+	@Override
+	public int available() {
+		return len - pos;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if (decoder != null) {
+			decoder.close();
+			decoder = null;
+			pos = len = 0;
+		}
+	}
+	
+}
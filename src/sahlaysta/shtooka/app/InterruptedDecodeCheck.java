@@ -0,0 +1,114 @@
+package sahlaysta.shtooka.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import sahlaysta.shtooka.ShtookaCollection;
+import sahlaysta.shtooka.ShtookaPcmAudio;
+import sahlaysta.shtooka.ShtookaVoiceClip;
+
+/**
+ * Check of {@link ShtookaCollection} reads on interrupted
+ * threads. Decodes and transfers the voice clips of the
+ * specified collection on a thread that is interrupted
+ * over and over, then decodes them again on another
+ * thread, for each whole read limit. The collection must
+ * stay open, and every decode must give the same audio.
+ * Exits with status 1 if the check fails.
+ *
+ * <p>Usage: java sahlaysta.shtooka.app.InterruptedDecodeCheck collection.tar [voice clips]
+ *
+ * @author sahlaysta
+ * @see ShtookaCollection
+ * */
+public final class InterruptedDecodeCheck {
+	
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.err.println(
+				"Usage: java sahlaysta.shtooka.app.InterruptedDecodeCheck"
+				+ " collection.tar [voice clips]");
+			System.exit(1);
+			return;
+		}
+		boolean ok = true;
+		for (int limit: new int[] { 0, 1 << 16 }) {
+			try (ShtookaCollection sc = new ShtookaCollection(new File(args[0]))) {
+				sc.setWholeReadLimit(limit);
+				ShtookaVoiceClip[] voiceClips = sc.getVoiceClips();
+				int count = Math.min(voiceClips.length,
+					args.length > 1 ? Integer.parseInt(args[1]) : 50);
+				voiceClips = Arrays.copyOf(voiceClips, count);
+				ShtookaPcmAudio[] expected = new ShtookaPcmAudio[count];
+				for (int i = 0; i < count; i++)
+					expected[i] = sc.decodeVoiceClip(voiceClips[i]);
+				
+				//decode and transfer on a thread interrupted over and over
+				AtomicReference<String> failure = new AtomicReference<>();
+				ShtookaVoiceClip[] clips = voiceClips;
+				Thread reader = new Thread(() -> {
+					OutputStream discard = new OutputStream() {
+						@Override
+						public void write(int b) {}
+						@Override
+						public void write(byte[] b, int off, int len) {}
+					};
+					try {
+						for (int round = 0; round < 20; round++) {
+							for (int i = 0; i < clips.length; i++) {
+								ShtookaPcmAudio pcm = sc.decodeVoiceClip(clips[i]);
+								if (!Arrays.equals(pcm.data, expected[i].data))
+									failure.compareAndSet(null,
+										"Different audio: " + clips[i].filename);
+								try {
+									sc.transferVoiceClip(
+										clips[i], Channels.newChannel(discard));
+								} catch (IOException e) {
+									//an interrupted transfer may fail
+								}
+							}
+						}
+					} catch (Exception e) {
+						failure.compareAndSet(null, "Interrupted decode failed: " + e);
+					}
+				});
+				reader.start();
+				int interrupts = 0;
+				while (reader.isAlive()) {
+					reader.interrupt();
+					interrupts++;
+					Thread.yield();
+				}
+				
+				//the collection is open to other threads
+				if (sc.isClosed())
+					failure.compareAndSet(null, "Collection closed by an interrupt");
+				Thread other = new Thread(() -> {
+					try {
+						for (int i = 0; i < clips.length; i++)
+							if (!Arrays.equals(sc.decodeVoiceClip(clips[i]).data,
+									expected[i].data))
+								failure.compareAndSet(null,
+									"Different audio: " + clips[i].filename);
+					} catch (Exception e) {
+						failure.compareAndSet(null, "Decode after interrupt failed: " + e);
+					}
+				});
+				other.start();
+				other.join();
+				
+				System.out.printf("Whole read limit %d: %d voice clips, %d interrupts: %s%n",
+					limit, count, interrupts,
+					failure.get() == null ? "OK" : failure.get());
+				ok &= failure.get() == null;
+			}
+		}
+		if (!ok)
+			System.exit(1);
+	}
+	
+}
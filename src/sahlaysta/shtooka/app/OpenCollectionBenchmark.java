@@ -0,0 +1,108 @@
+package sahlaysta.shtooka.app;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import sahlaysta.shtooka.ShtookaCollection;
+
+/**
+ * Startup benchmark of {@link ShtookaCollection}.
+ * Writes a synthetic Shtooka .tar collection with the
+ * specified number of voice clip entries and measures
+ * the time to open it, which includes joining the
+ * voice clips to their tag names by filename.
+ *
+ * <p>Usage: java sahlaysta.shtooka.app.OpenCollectionBenchmark [entries]
+ *
+ * @author sahlaysta
+ * @see ShtookaCollection
+ * */
+public final class OpenCollectionBenchmark {
+	
+	public static void main(String[] args) throws IOException {
+		int entries = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		
+		//write the synthetic collection
+		File file = File.createTempFile("shtooka-benchmark", ".tar");
+		file.deleteOnExit();
+		writeCollection(file, entries);
+		System.out.printf("%d entries, %d bytes%n", entries, file.length());
+		
+		//open the collection
+		long start = System.nanoTime();
+		ShtookaCollection sc = new ShtookaCollection(file);
+		long openTime = System.nanoTime() - start;
+		int count = sc.getVoiceClipCount();
+		System.out.printf("Open collection: %d ms (%d voice clips)%n",
+			openTime / 1000000, count);
+		System.out.println("Scan: " + sc.getScanStatistics());
+		sc.close();
+	}
+	
+	private static String filename(int i) {
+		return String.format("flac/bench-%07d.flac", i);
+	}
+	
+	
+	//Synthetic .tar collection
+	private static void writeCollection(File file, int entries) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16)) {
+			//index.xml tags
+			StringBuilder xml = new StringBuilder(entries * 64);
+			xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<index>\n");
+			for (int i = 0; i < entries; i++) {
+				xml.append("<file path=\"").append(filename(i).substring(5))
+					.append("\">\n<tag swac_text=\"word").append(i)
+					.append("\" />\n</file>\n");
+			}
+			xml.append("</index>\n");
+			writeEntry(out, "flac/index.xml",
+				xml.toString().getBytes(StandardCharsets.UTF_8));
+			
+			//voice clips
+			byte[] flac = "fLaC".getBytes(StandardCharsets.US_ASCII);
+			for (int i = 0; i < entries; i++)
+				writeEntry(out, filename(i), flac);
+			
+			//end of archive
+			out.write(new byte[1024]);
+		}
+	}
+	
+	private static void writeEntry(OutputStream out, String name, byte[] data)
+			throws IOException {
+		byte[] header = new byte[512];
+		putString(header, 0, name);
+		putString(header, 100, "0000644");
+		putString(header, 108, "0000000");
+		putString(header, 116, "0000000");
+		putString(header, 124, String.format("%011o", data.length));
+		putString(header, 136, "00000000000");
+		header[156] = '0';
+		putString(header, 257, "ustar");
+		putString(header, 263, "00");
+		
+		//header checksum
+		for (int i = 148; i < 156; i++)
+			header[i] = ' ';
+		int sum = 0;
+		for (byte b: header)
+			sum += b & 0xFF;
+		putString(header, 148, String.format("%06o", sum));
+		
+		out.write(header);
+		out.write(data);
+		out.write(new byte[-data.length & 511]);
+	}
+	
+	private static void putString(byte[] b, int off, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		System.arraycopy(bytes, 0, b, off, bytes.length);
+	}
+
+}